@@ -0,0 +1,108 @@
+package org.thingml.tradfri.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thingml.tradfri.TradfriClientCache;
+import org.thingml.tradfri.TradfriConstants;
+
+/**
+ * Compares building a CoapClient for every exchange (what TradfriGateway.get()/set() used to do)
+ * with reusing the clients of a TradfriClientCache.
+ *
+ * The "acquire" benchmarks only measure getting a client bound to the endpoint, the "exchange"
+ * benchmarks measure a full GET against a local plain CoAP server (no DTLS) serving a recorded bulb.
+ * Run with "-prof gc" to get the allocation rate per exchange.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CoapClientBenchmark {
+
+	private static final String PATH = TradfriConstants.DEVICES + "/65557";
+
+	private CoapServer server;
+
+	private CoapEndpoint endpoint;
+
+	private String baseUri;
+
+	private TradfriClientCache cache;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		final NetworkConfig config = NetworkConfig.createStandardWithoutFile();
+
+		server = new CoapServer(config, 0);
+		final CoapResource devices = new CoapResource(TradfriConstants.DEVICES);
+		devices.add(new CoapResource("65557") {
+			@Override
+			public void handleGET(final CoapExchange exchange) {
+				exchange.respond(ResponseCode.CONTENT, Payloads.BULB_CWS, MediaTypeRegistry.TEXT_PLAIN);
+			}
+		});
+		server.add(devices);
+		server.start();
+
+		endpoint = new CoapEndpoint(config);
+		endpoint.start();
+		baseUri = "coap://127.0.0.1:" + server.getEndpoints().get(0).getAddress().getPort() + "/";
+
+		cache = new TradfriClientCache();
+		cache.bind(endpoint, baseUri);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		endpoint.destroy();
+		server.destroy();
+	}
+
+	@Benchmark
+	public CoapClient acquireNewClient() {
+		final CoapClient client = new CoapClient(baseUri + PATH);
+		client.setEndpoint(endpoint);
+		return client;
+	}
+
+	@Benchmark
+	public CoapClient acquireCachedClient() {
+		return cache.get(PATH);
+	}
+
+	@Benchmark
+	public CoapResponse exchangeNewClient() {
+		final CoapClient client = new CoapClient(baseUri + PATH);
+		client.setEndpoint(endpoint);
+		return client.get(1);
+	}
+
+	@Benchmark
+	public CoapResponse exchangeCachedClient() {
+		return cache.get(PATH).get(1);
+	}
+
+}
@@ -0,0 +1,65 @@
+package org.thingml.tradfri.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thingml.tradfri.packet.TradfriLightBulbPacket;
+
+/**
+ * Cost of building a color command: the RGB to xy conversion of setRGBColor() (gamma correction,
+ * Wide RGB D65 matrix) against the preset hex color of setColor(). The commands are built in a
+ * batch, which runs the same conversion as setRGBColor() without sending anything.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ColorConversionBenchmark {
+
+	/**
+	 * Preset colors of the color bulbs (see the README)
+	 */
+	@Param({ "4a418a", "f1e0b5", "d9337c", "a9d62b" })
+	private String color;
+
+	private int red;
+
+	private int green;
+
+	private int blue;
+
+	private TradfriLightBulbPacket bulb;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		final int rgb = Integer.parseInt(color, 16);
+		red = (rgb >> 16) & 0xff;
+		green = (rgb >> 8) & 0xff;
+		blue = rgb & 0xff;
+		bulb = new TradfriLightBulbPacket(65557, null, Payloads.response(Payloads.BULB_CWS));
+	}
+
+	@Benchmark
+	public TradfriLightBulbPacket.Batch rgbColor() {
+		return bulb.batch().setRGBColor(red, green, blue);
+	}
+
+	@Benchmark
+	public TradfriLightBulbPacket.Batch hexColor() {
+		return bulb.batch().setColor(color);
+	}
+
+}
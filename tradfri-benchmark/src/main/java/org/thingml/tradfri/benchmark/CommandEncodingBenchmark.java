@@ -0,0 +1,88 @@
+package org.thingml.tradfri.benchmark;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thingml.tradfri.TradfriCommand;
+import org.thingml.tradfri.TradfriConstants;
+
+/**
+ * Compares encoding command payloads through a JSON object tree (TradfriCommand.toPayload(),
+ * then the UTF-8 bytes sent by Californium) with the byte buffer encoder (TradfriCommand.encode()).
+ * Run with "-prof gc" to get the allocation per payload.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandEncodingBenchmark {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final TradfriCommand on = new TradfriCommand(TradfriConstants.LIGHT)
+			.set(TradfriConstants.ONOFF, 1);
+
+	private final TradfriCommand dim = new TradfriCommand(TradfriConstants.LIGHT)
+			.set(TradfriConstants.DIMMER, 254)
+			.set(TradfriConstants.TRANSITION_TIME, 5);
+
+	private final TradfriCommand color = new TradfriCommand(TradfriConstants.LIGHT)
+			.set(TradfriConstants.COLOR_X, 24930)
+			.set(TradfriConstants.COLOR_Y, 24694)
+			.set(TradfriConstants.TRANSITION_TIME, 5);
+
+	private final TradfriCommand outlet = new TradfriCommand(TradfriConstants.CONTROL)
+			.set(TradfriConstants.ONOFF, 0);
+
+	@Benchmark
+	public byte[] onJsonTree() {
+		return on.toPayload().getBytes(UTF_8);
+	}
+
+	@Benchmark
+	public byte[] onEncoder() {
+		return on.encode();
+	}
+
+	@Benchmark
+	public byte[] dimJsonTree() {
+		return dim.toPayload().getBytes(UTF_8);
+	}
+
+	@Benchmark
+	public byte[] dimEncoder() {
+		return dim.encode();
+	}
+
+	@Benchmark
+	public byte[] colorJsonTree() {
+		return color.toPayload().getBytes(UTF_8);
+	}
+
+	@Benchmark
+	public byte[] colorEncoder() {
+		return color.encode();
+	}
+
+	@Benchmark
+	public byte[] outletJsonTree() {
+		return outlet.toPayload().getBytes(UTF_8);
+	}
+
+	@Benchmark
+	public byte[] outletEncoder() {
+		return outlet.encode();
+	}
+
+}
@@ -0,0 +1,145 @@
+package org.thingml.tradfri.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.thingml.tradfri.TradfriDeviceRegistry;
+import org.thingml.tradfri.TradfriGateway;
+import org.thingml.tradfri.listener.TradfriGatewayListener;
+import org.thingml.tradfri.packet.TradfriHardwarePacket;
+import org.thingml.tradfri.packet.TradfriLightBulbPacket;
+import org.thingml.tradfri.simulator.TradfriGatewaySimulator;
+
+/**
+ * Lookups in the device registry of a gateway, as done for each observe notification, command and
+ * UI refresh, up to the size of large installations. The registry is filled by the discovery of a
+ * gateway against a {@link TradfriGatewaySimulator} serving the recorded payloads, each device from
+ * its own response; the gateway is stopped before the measurement, its registry is kept.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeviceRegistryBenchmark {
+
+	private static final String SECURITY_KEY = "benchmark";
+
+	private static final long DISCOVERY_TIMEOUT = 120000;
+
+	@Param({ "10", "100", "1000", "5000" })
+	private int size;
+
+	private TradfriGatewaySimulator simulator;
+
+	private ScheduledExecutorService executor;
+
+	private TradfriGateway gateway;
+
+	private TradfriDeviceRegistry registry;
+
+	/**
+	 * Ids of the devices of the simulator, including those the registry does not keep (remotes)
+	 */
+	private int[] ids;
+
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		// Able to take the device list of thousands of devices in a single blockwise transfer
+		final NetworkConfig config = NetworkConfig.createStandardWithoutFile();
+		config.setInt(NetworkConfig.Keys.MAX_RESOURCE_BODY_SIZE, 256 * 1024);
+		simulator = new TradfriGatewaySimulator("127.0.0.1", SECURITY_KEY, size);
+		simulator.setNetworkConfig(config);
+		simulator.start();
+
+		final CountDownLatch started = new CountDownLatch(1);
+		gateway = new TradfriGateway("127.0.0.1", SECURITY_KEY, 3600000, config);
+		gateway.setPollingConcurrency(16);
+		gateway.addListener((TradfriGatewayListener) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { TradfriGatewayListener.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				if (method.getName().equals("gatewayStarted"))
+					started.countDown();
+				return null;
+			}
+		}));
+		// On an executor, stop() does not wait for the next polling cycle
+		executor = Executors.newSingleThreadScheduledExecutor();
+		gateway.start(executor);
+		if (!started.await(DISCOVERY_TIMEOUT, TimeUnit.MILLISECONDS))
+			throw new IllegalStateException("Discovery of " + size + " devices did not complete");
+		gateway.stop();
+		registry = gateway.getDeviceRegistry();
+
+		final List<Integer> deviceIds = simulator.getDeviceIds();
+		ids = new int[deviceIds.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = deviceIds.get(i);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		while (gateway.isRunning())
+			Thread.sleep(10);
+		gateway.destroy();
+		executor.shutdown();
+		simulator.stop();
+	}
+
+	private int nextId() {
+		return ids[next++ % ids.length];
+	}
+
+	@Benchmark
+	public TradfriHardwarePacket<?> getById() {
+		return registry.get(nextId());
+	}
+
+	@Benchmark
+	public TradfriLightBulbPacket getByIdAndType() {
+		return registry.get(nextId(), TradfriLightBulbPacket.class);
+	}
+
+	@Benchmark
+	public boolean contains() {
+		return registry.contains(nextId());
+	}
+
+	@Benchmark
+	public void iterateLightBulbs(final Blackhole bh) {
+		for (TradfriLightBulbPacket bulb : registry.getLightBulbs()) {
+			bh.consume(bulb.isOn());
+		}
+	}
+
+	@Benchmark
+	public List<TradfriHardwarePacket<?>> allDevices() {
+		return registry.getDevices();
+	}
+
+}
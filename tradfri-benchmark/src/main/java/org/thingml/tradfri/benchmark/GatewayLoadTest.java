@@ -0,0 +1,406 @@
+package org.thingml.tradfri.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.thingml.tradfri.TradfriFuture;
+import org.thingml.tradfri.TradfriGateway;
+import org.thingml.tradfri.TradfriImpairment;
+import org.thingml.tradfri.listener.TradfriGatewayListener;
+import org.thingml.tradfri.packet.TradfriControlOutletPacket;
+import org.thingml.tradfri.packet.TradfriGroupPacket;
+import org.thingml.tradfri.packet.TradfriLightBulbPacket;
+import org.thingml.tradfri.simulator.TradfriGatewaySimulator;
+
+/**
+ * Load test of TradfriGateway against a simulated gateway, for installations of growing size.
+ *
+ * For each device count, a {@link TradfriGatewaySimulator} is started in a child JVM (so the CPU
+ * and heap figures only cover the library) and a gateway is started against it. The run reports:
+ * <ul>
+ * <li>the discovery time, from start() until all devices and groups are known</li>
+ * <li>the poll cycle time percentiles, over the cycles following the warmup cycles</li>
+ * <li>the CPU time of the process per poll cycle</li>
+ * <li>the heap retained per discovered device (the fixed cost of the connection dominates for a few devices)</li>
+ * <li>the throughput of commands sent through the packet setters (setIntensityAsync())</li>
+ * </ul>
+ * The results are printed as a table and written as JSON, one object per device count. The
+ * connection of the gateway can be impaired (see {@link TradfriImpairment}) to run the test under
+ * lossy Wi-Fi conditions, the n-th datagram of each direction getting the same fate on every run.
+ *
+ * Options: -sizes 10,100,1000,5000 -cycles 10 -warmup 2 -commands 2000 -serviceTime 0
+ * -concurrency 4 -host 127.0.0.1 -out loadtest.json, and for the impairment -loss 0 -delay 0
+ * -jitter 0 -duplication 0 -reordering 0
+ */
+public class GatewayLoadTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String SECURITY_KEY = "loadtest";
+
+	private static final long DISCOVERY_TIMEOUT = 300000;
+
+	private int[] sizes = { 10, 100, 1000, 5000 };
+
+	private int cycles = 10;
+
+	private int warmup = 2;
+
+	private int commands = 2000;
+
+	private int serviceTime = 0;
+
+	private int concurrency = 4;
+
+	private String host = "127.0.0.1";
+
+	private File out = new File("loadtest.json");
+
+	private double loss = 0;
+
+	private int delay = 0;
+
+	private int jitter = 0;
+
+	private double duplication = 0;
+
+	private double reordering = 0;
+
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+	public static void main(final String[] args) throws Exception {
+		final GatewayLoadTest test = new GatewayLoadTest();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			test.option(args[i], args[i + 1]);
+		}
+		test.run();
+		System.exit(0);
+	}
+
+	private void option(final String name, final String value) {
+		if ("-sizes".equals(name)) {
+			final String[] values = value.split(",");
+			sizes = new int[values.length];
+			for (int i = 0; i < values.length; i++) {
+				sizes[i] = Integer.parseInt(values[i].trim());
+			}
+		} else if ("-cycles".equals(name)) {
+			cycles = Integer.parseInt(value);
+		} else if ("-warmup".equals(name)) {
+			warmup = Integer.parseInt(value);
+		} else if ("-commands".equals(name)) {
+			commands = Integer.parseInt(value);
+		} else if ("-serviceTime".equals(name)) {
+			serviceTime = Integer.parseInt(value);
+		} else if ("-concurrency".equals(name)) {
+			concurrency = Integer.parseInt(value);
+		} else if ("-host".equals(name)) {
+			host = value;
+		} else if ("-out".equals(name)) {
+			out = new File(value);
+		} else if ("-loss".equals(name)) {
+			loss = Double.parseDouble(value);
+		} else if ("-delay".equals(name)) {
+			delay = Integer.parseInt(value);
+		} else if ("-jitter".equals(name)) {
+			jitter = Integer.parseInt(value);
+		} else if ("-duplication".equals(name)) {
+			duplication = Double.parseDouble(value);
+		} else if ("-reordering".equals(name)) {
+			reordering = Double.parseDouble(value);
+		} else {
+			throw new IllegalArgumentException("Unknown option " + name);
+		}
+	}
+
+	private void run() throws Exception {
+		final JSONArray results = new JSONArray();
+		System.out.println(String.format(Locale.ROOT, "%8s %12s %10s %10s %10s %10s %14s %14s %12s %10s",
+				"devices", "discovery ms", "cycle p50", "cycle p90", "cycle p99", "cycle max", "cpu ms/cycle", "heap B/device", "commands/s", "PUTs/s"));
+		for (int size : sizes) {
+			final JSONObject result = run(size);
+			results.put(result);
+			System.out.println(String.format(Locale.ROOT, "%8d %12d %10d %10d %10d %10d %14.1f %14d %12.0f %10.0f",
+					size, result.getLong("discoveryMillis"), result.getLong("cycleP50Millis"), result.getLong("cycleP90Millis"),
+					result.getLong("cycleP99Millis"), result.getLong("cycleMaxMillis"), result.getDouble("cpuMillisPerCycle"),
+					result.getLong("heapBytesPerDevice"), result.getDouble("commandsPerSecond"), result.getDouble("putsPerSecond")));
+		}
+		final Writer writer = new OutputStreamWriter(new FileOutputStream(out), UTF_8);
+		try {
+			writer.write(results.toString(2));
+			writer.write('\n');
+		} finally {
+			writer.close();
+		}
+		System.out.println("Results written to " + out.getAbsolutePath());
+	}
+
+	private JSONObject run(final int size) throws Exception {
+		final Process simulator = startSimulator(size);
+		try {
+			final long heapBefore = usedHeap();
+
+			final Probe probe = new Probe();
+			final TradfriGateway gateway = new TradfriGateway(host, SECURITY_KEY, 1000, networkConfig());
+			gateway.setPollingConcurrency(concurrency);
+			gateway.addListener(probe);
+			final TradfriImpairment impairment = impairment();
+			gateway.setImpairment(impairment);
+
+			final long start = System.nanoTime();
+			gateway.start();
+			if (!probe.started.await(DISCOVERY_TIMEOUT, TimeUnit.MILLISECONDS))
+				throw new IllegalStateException("Discovery of " + size + " devices did not complete");
+			final long discoveryMillis = (System.nanoTime() - start) / 1000000;
+			final long heapBytesPerDevice = (usedHeap() - heapBefore) / Math.max(1, gateway.getDeviceRegistry().size());
+
+			// Poll cycles
+			for (int i = 0; i < warmup; i++) {
+				probe.cycles.take();
+			}
+			final long cpuBefore = processCpuNanos();
+			final List<Integer> times = new ArrayList<Integer>();
+			for (int i = 0; i < cycles; i++) {
+				times.add(probe.cycles.take());
+			}
+			final long cpuNanos = processCpuNanos() - cpuBefore;
+			Collections.sort(times);
+
+			// Commands through the packet setters, spread over the bulbs
+			final List<TradfriLightBulbPacket> bulbs = gateway.getLightBulbs();
+			final long putsBefore = gateway.getMetrics().getCommandsSent();
+			final List<TradfriFuture<CoapResponse>> futures = new ArrayList<TradfriFuture<CoapResponse>>();
+			final long commandsStart = System.nanoTime();
+			for (int i = 0; i < commands && !bulbs.isEmpty(); i++) {
+				futures.add(bulbs.get(i % bulbs.size()).setIntensityAsync(1 + i % 254));
+			}
+			TradfriFuture.all(futures).get(DISCOVERY_TIMEOUT, TimeUnit.MILLISECONDS);
+			final double commandsSeconds = (System.nanoTime() - commandsStart) / 1e9;
+			final long puts = gateway.getMetrics().getCommandsSent() - putsBefore;
+
+			gateway.stop();
+			// The gateway closes at the end of its current cycle, only then can it release its threads
+			final long stopDeadline = System.currentTimeMillis() + DISCOVERY_TIMEOUT;
+			while (gateway.isRunning() && System.currentTimeMillis() < stopDeadline)
+				Thread.sleep(20);
+			gateway.destroy();
+
+			final JSONObject result = new JSONObject();
+			result.put("devices", size);
+			result.put("discoveredDevices", gateway.getDeviceRegistry().size());
+			result.put("groups", gateway.getGroups().size());
+			result.put("serviceTimeMillis", serviceTime);
+			result.put("pollingConcurrency", concurrency);
+			result.put("discoveryMillis", discoveryMillis);
+			result.put("handshakeMillis", gateway.getMetrics().getLastHandshakeMillis());
+			result.put("cycles", times.size());
+			result.put("cycleP50Millis", percentile(times, 0.50));
+			result.put("cycleP90Millis", percentile(times, 0.90));
+			result.put("cycleP99Millis", percentile(times, 0.99));
+			result.put("cycleMaxMillis", times.isEmpty() ? 0 : times.get(times.size() - 1));
+			result.put("cpuMillisPerCycle", (times.isEmpty()) ? 0 : cpuNanos / 1e6 / times.size());
+			result.put("heapBytesPerDevice", heapBytesPerDevice);
+			result.put("commands", futures.size());
+			result.put("commandsPerSecond", futures.size() / commandsSeconds);
+			result.put("putsPerSecond", puts / commandsSeconds);
+			result.put("timeouts", gateway.getMetrics().getTimeouts());
+			result.put("retransmissions", gateway.getMetrics().getRetransmissions());
+			if (impairment != null) {
+				result.put("loss", loss);
+				result.put("delayMillis", delay);
+				result.put("jitterMillis", jitter);
+				result.put("duplication", duplication);
+				result.put("reordering", reordering);
+				result.put("datagramsLost", impairment.getLost());
+			}
+			return result;
+		} finally {
+			simulator.destroy();
+			simulator.waitFor();
+		}
+	}
+
+	/**
+	 * Starts the simulator in a child JVM with the classpath of this one, once it serves its devices
+	 */
+	private Process startSimulator(final int size) throws IOException {
+		final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		final Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				TradfriGatewaySimulator.class.getName(), host, SECURITY_KEY, String.valueOf(size), String.valueOf(serviceTime))
+				.redirectErrorStream(true).start();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.startsWith("Simulated gateway on"))
+				break;
+		}
+		if (line == null)
+			throw new IOException("Simulator for " + size + " devices did not start");
+		// Keeps draining the output, the simulator would block on a full pipe
+		final Thread drain = new Thread("simulator-output") {
+			@Override
+			public void run() {
+				try {
+					while (reader.readLine() != null) {
+					}
+				} catch (IOException ex) {
+					// Simulator stopped
+				}
+			}
+		};
+		drain.setDaemon(true);
+		drain.start();
+		return process;
+	}
+
+	/**
+	 * Impairment of the run, null for a clean network. Each size starts from the same seed.
+	 */
+	private TradfriImpairment impairment() {
+		if (loss == 0 && delay == 0 && jitter == 0 && duplication == 0 && reordering == 0)
+			return null;
+		return new TradfriImpairment()
+				.setLoss(loss)
+				.setDelay(delay)
+				.setJitter(jitter)
+				.setDuplication(duplication)
+				.setReordering(reordering);
+	}
+
+	/**
+	 * Standard configuration, able to take the device list of thousands of devices (about 6 bytes
+	 * per device) in a single blockwise transfer
+	 */
+	private static NetworkConfig networkConfig() {
+		final NetworkConfig config = NetworkConfig.createStandardWithoutFile();
+		config.setInt(NetworkConfig.Keys.MAX_RESOURCE_BODY_SIZE, 256 * 1024);
+		return config;
+	}
+
+	private long usedHeap() throws InterruptedException {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	private static long processCpuNanos() {
+		final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		return 0;
+	}
+
+	private static long percentile(final List<Integer> sorted, final double p) {
+		if (sorted.isEmpty())
+			return 0;
+		final int index = (int) Math.ceil(p * sorted.size()) - 1;
+		return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+	}
+
+	/**
+	 * Signals the end of the discovery and collects the poll cycle times
+	 */
+	private static class Probe implements TradfriGatewayListener {
+
+		private final CountDownLatch started = new CountDownLatch(1);
+
+		private final BlockingQueue<Integer> cycles = new LinkedBlockingQueue<Integer>();
+
+		@Override
+		public void gatewayStarted(final TradfriGateway gateway) {
+			started.countDown();
+		}
+
+		@Override
+		public void pollingCompleted(final TradfriGateway gateway, final int deviceCount, final int skippedCount, final int totalTime) {
+			// Cycles ending before the discovery are not measured
+			if (started.getCount() == 0)
+				cycles.add(totalTime);
+		}
+
+		@Override
+		public void gatewayInitializing(final TradfriGateway gateway) {
+		}
+
+		@Override
+		public void lightBulbDiscoveryStarted(final TradfriGateway gateway, final int totalDevices) {
+		}
+
+		@Override
+		public void lightBulbDiscovered(final TradfriGateway gateway, final TradfriLightBulbPacket lightBulb) {
+		}
+
+		@Override
+		public void lightBulbDiscoveryCompleted(final TradfriGateway gateway) {
+		}
+
+		@Override
+		public void lightBulbRemoved(final TradfriGateway gateway, final TradfriLightBulbPacket lightBulb) {
+		}
+
+		@Override
+		public void controlOutletDiscoveryStarted(final TradfriGateway gateway, final int totalDevices) {
+		}
+
+		@Override
+		public void controlOutletDiscovered(final TradfriGateway gateway, final TradfriControlOutletPacket controlOutlet) {
+		}
+
+		@Override
+		public void controlOutletDiscoveryCompleted(final TradfriGateway gateway) {
+		}
+
+		@Override
+		public void controlOutletRemoved(final TradfriGateway gateway, final TradfriControlOutletPacket controlOutlet) {
+		}
+
+		@Override
+		public void groupDiscoveryStarted(final TradfriGateway gateway, final int totalGroups) {
+		}
+
+		@Override
+		public void groupDiscovered(final TradfriGateway gateway, final TradfriGroupPacket group) {
+		}
+
+		@Override
+		public void groupDiscoveryCompleted(final TradfriGateway gateway) {
+		}
+
+		@Override
+		public void groupRemoved(final TradfriGateway gateway, final TradfriGroupPacket group) {
+		}
+
+		@Override
+		public void gatewayStoped(final TradfriGateway gateway) {
+		}
+
+		@Override
+		public void pollingStarted(final TradfriGateway gateway) {
+		}
+
+	}
+
+}
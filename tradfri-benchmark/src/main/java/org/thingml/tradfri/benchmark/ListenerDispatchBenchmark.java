@@ -0,0 +1,146 @@
+package org.thingml.tradfri.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thingml.tradfri.TradfriEvent;
+import org.thingml.tradfri.TradfriEventDispatcher;
+import org.thingml.tradfri.TradfriGateway;
+import org.thingml.tradfri.TradfriStateSubscription;
+import org.thingml.tradfri.listener.TradfriLightBulbListener;
+import org.thingml.tradfri.packet.TradfriLightBulbPacket;
+import org.thingml.tradfri.packet.TradfriPacket;
+
+/**
+ * Delivery of the events to the listeners: on the calling thread (packets without gateway), through
+ * the striped dispatcher of a gateway, and from the update of a bulb whose state changes at each
+ * call, either to plain listeners or to a conflating subscription.
+ *
+ * The dispatcher benchmarks measure the throughput of the producer: a full stripe queue blocks it,
+ * so the rate is bounded by the stripe threads delivering the events.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListenerDispatchBenchmark {
+
+	/**
+	 * Devices the events are spread on, 64 is a large installation
+	 */
+	private static final int DEVICES = 64;
+
+	@Param({ "1", "8" })
+	private int listenerCount;
+
+	private final List<Counter> listeners = new CopyOnWriteArrayList<Counter>();
+
+	private final TradfriEvent<Counter> event = new TradfriEvent<Counter>() {
+		@Override
+		public void deliver(final Counter listener) {
+			listener.count++;
+		}
+	};
+
+	private TradfriEventDispatcher dispatcher;
+
+	private TradfriGateway gateway;
+
+	private TradfriLightBulbPacket bulb;
+
+	private TradfriLightBulbPacket subscribedBulb;
+
+	private TradfriStateSubscription subscription;
+
+	private CoapResponse response;
+
+	private CoapResponse changedResponse;
+
+	private int key;
+
+	private boolean toggle;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		final List<Counter> counters = new ArrayList<Counter>();
+		for (int i = 0; i < listenerCount; i++) {
+			counters.add(new Counter());
+		}
+		listeners.addAll(counters);
+		dispatcher = new TradfriEventDispatcher();
+
+		response = Payloads.response(Payloads.BULB_CWS);
+		changedResponse = Payloads.response(Payloads.BULB_CWS_CHANGED);
+
+		// Never started, only its dispatcher is used
+		gateway = new TradfriGateway();
+		bulb = new TradfriLightBulbPacket(65557, gateway, response);
+		for (int i = 0; i < listenerCount; i++) {
+			bulb.addListener(new TradfriLightBulbListener() {
+				@Override
+				public void bulbStateChanged(final TradfriLightBulbPacket bulb) {
+				}
+			});
+		}
+
+		subscribedBulb = new TradfriLightBulbPacket(65557, null, response);
+		subscription = new TradfriStateSubscription();
+		subscription.subscribe(subscribedBulb);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		dispatcher.shutdown();
+		gateway.destroy();
+		subscription.unsubscribeAll();
+	}
+
+	@Benchmark
+	public void deliverDirect() {
+		TradfriEventDispatcher.deliver(listeners, event);
+	}
+
+	@Benchmark
+	public void dispatchStriped() {
+		dispatcher.dispatch(key++ % DEVICES, listeners, event);
+	}
+
+	@Benchmark
+	public TradfriLightBulbPacket updateDispatched() throws Exception {
+		toggle = !toggle;
+		bulb.update(toggle ? changedResponse : response);
+		return bulb;
+	}
+
+	@Benchmark
+	public List<TradfriPacket> updateSubscribed() throws Exception {
+		toggle = !toggle;
+		subscribedBulb.update(toggle ? changedResponse : response);
+		return subscription.drain();
+	}
+
+	private static class Counter {
+
+		private long count;
+
+	}
+
+}
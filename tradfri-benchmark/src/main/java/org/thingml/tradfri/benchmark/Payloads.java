@@ -0,0 +1,84 @@
+package org.thingml.tradfri.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.Response;
+
+/**
+ * Payloads recorded from a gateway, shared by the benchmarks.
+ *
+ * They are kept in the payloads resource folder exactly as the gateway sends them (compact JSON,
+ * one resource per file), so a new recording only has to be dropped in there.
+ */
+public final class Payloads {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Color bulb of the README, with its light on
+	 */
+	public static final String BULB_CWS = load("bulb-cws.json");
+
+	/**
+	 * Same color bulb, switched off with another color and a newer last seen date
+	 */
+	public static final String BULB_CWS_CHANGED = load("bulb-cws-changed.json");
+
+	/**
+	 * White spectrum bulb of the README
+	 */
+	public static final String BULB_WS = load("bulb-ws.json");
+
+	public static final String OUTLET = load("outlet.json");
+
+	public static final String REMOTE = load("remote.json");
+
+	public static final String GROUP = load("group.json");
+
+	/**
+	 * Answer to a GET of the devices list (15001)
+	 */
+	public static final String DEVICES = load("devices.json");
+
+	private Payloads() {
+	}
+
+	/**
+	 * Response of the gateway carrying the given payload, as handed to the packets by Californium
+	 */
+	public static CoapResponse response(final String payload) {
+		final Response response = new Response(ResponseCode.CONTENT);
+		response.setPayload(payload);
+		return new CoapResponse(response) {
+		};
+	}
+
+	private static String load(final String name) {
+		final InputStream in = Payloads.class.getResourceAsStream("/payloads/" + name);
+		if (in == null)
+			throw new IllegalStateException("Missing recorded payload " + name);
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[1024];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return new String(out.toByteArray(), UTF_8).trim();
+		} catch (IOException ex) {
+			throw new IllegalStateException("Cannot read recorded payload " + name, ex);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException ex) {
+				// Nothing left to read
+			}
+		}
+	}
+
+}
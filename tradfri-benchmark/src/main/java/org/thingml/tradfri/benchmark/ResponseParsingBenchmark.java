@@ -0,0 +1,149 @@
+package org.thingml.tradfri.benchmark;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapResponse;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.thingml.tradfri.TradfriAttributeChange;
+import org.thingml.tradfri.TradfriConstants;
+import org.thingml.tradfri.listener.TradfriAttributeListener;
+import org.thingml.tradfri.packet.TradfriControlOutletPacket;
+import org.thingml.tradfri.packet.TradfriGroupPacket;
+import org.thingml.tradfri.packet.TradfriLightBulbPacket;
+
+/**
+ * Compares the update path of a bulb packet, which decodes the payload once for the base
+ * information and the light state, with the former path which parsed the response text twice
+ * (once in parseResponseBase() and once in update()), and measures the update of the other
+ * recorded resources (white spectrum bulb, control outlet, group, devices list).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseParsingBenchmark {
+
+	private CoapResponse response;
+
+	private CoapResponse changedResponse;
+
+	private CoapResponse whiteResponse;
+
+	private CoapResponse outletResponse;
+
+	private CoapResponse groupResponse;
+
+	private CoapResponse devicesResponse;
+
+	private TradfriLightBulbPacket bulb;
+
+	private TradfriLightBulbPacket toggledBulb;
+
+	private TradfriLightBulbPacket whiteBulb;
+
+	private TradfriControlOutletPacket outlet;
+
+	private TradfriGroupPacket group;
+
+	private boolean toggle;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		response = Payloads.response(Payloads.BULB_CWS);
+		changedResponse = Payloads.response(Payloads.BULB_CWS_CHANGED);
+		whiteResponse = Payloads.response(Payloads.BULB_WS);
+		outletResponse = Payloads.response(Payloads.OUTLET);
+		groupResponse = Payloads.response(Payloads.GROUP);
+		devicesResponse = Payloads.response(Payloads.DEVICES);
+
+		bulb = new TradfriLightBulbPacket(65557, null, response);
+		toggledBulb = new TradfriLightBulbPacket(65557, null, response);
+		whiteBulb = new TradfriLightBulbPacket(65555, null, whiteResponse);
+		outlet = new TradfriControlOutletPacket(65560, null, outletResponse);
+		group = new TradfriGroupPacket(131073, null, groupResponse);
+
+		// Attribute listeners make the packets record each change, as when a UI is attached
+		toggledBulb.addAttributeListener(new TradfriAttributeListener() {
+			@Override
+			public void attributeChanged(final TradfriAttributeChange change) {
+			}
+		});
+	}
+
+	@Benchmark
+	public void doubleParse(final Blackhole bh) {
+		final JSONObject base = new JSONObject(response.getResponseText());
+		bh.consume(base.getString(TradfriConstants.NAME));
+		bh.consume(new Date(base.getLong(TradfriConstants.DATE_INSTALLED) * 1000));
+		bh.consume(new Date(base.getLong(TradfriConstants.DATE_LAST_SEEN) * 1000));
+		bh.consume(base.getJSONObject("3").getString("0"));
+		bh.consume(base.getJSONObject("3").getString("1"));
+		bh.consume(base.getJSONObject("3").getString("3"));
+
+		final JSONObject json = new JSONObject(response.getResponseText());
+		bh.consume(json.getInt(TradfriConstants.DEVICE_REACHABLE));
+		final JSONObject light = json.getJSONArray(TradfriConstants.LIGHT).getJSONObject(0);
+		bh.consume(light.getInt(TradfriConstants.ONOFF));
+		bh.consume(light.getInt(TradfriConstants.DIMMER));
+		bh.consume(light.getString(TradfriConstants.COLOR));
+	}
+
+	@Benchmark
+	public TradfriLightBulbPacket singleParse() throws Exception {
+		bulb.update(response);
+		return bulb;
+	}
+
+	/**
+	 * Update where the state alternates at each call, so the changes are collected and the listeners fired
+	 */
+	@Benchmark
+	public TradfriLightBulbPacket singleParseChanged() throws Exception {
+		toggle = !toggle;
+		toggledBulb.update(toggle ? changedResponse : response);
+		return toggledBulb;
+	}
+
+	@Benchmark
+	public TradfriLightBulbPacket whiteBulb() throws Exception {
+		whiteBulb.update(whiteResponse);
+		return whiteBulb;
+	}
+
+	@Benchmark
+	public TradfriControlOutletPacket controlOutlet() throws Exception {
+		outlet.update(outletResponse);
+		return outlet;
+	}
+
+	@Benchmark
+	public TradfriGroupPacket group() throws Exception {
+		group.update(groupResponse);
+		return group;
+	}
+
+	/**
+	 * Devices list decoded by each discovery
+	 */
+	@Benchmark
+	public JSONArray devicesList() {
+		return new JSONArray(devicesResponse.getResponseText());
+	}
+
+}
@@ -0,0 +1,577 @@
+package org.thingml.tradfri.simulator;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.scandium.DTLSConnector;
+import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
+import org.eclipse.californium.scandium.dtls.pskstore.InMemoryPskStore;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.thingml.tradfri.TradfriConstants;
+import org.thingml.tradfri.TradfriPskStore;
+import org.thingml.tradfri.benchmark.Payloads;
+
+/**
+ * In-process IKEA Tradfri gateway, to run TradfriGateway against without hardware.
+ *
+ * The simulator serves CoAP over DTLS with the PSK setup of the real gateway (empty identity, the
+ * security key as pre-shared key) on port 5684 of the given host. It serves:
+ * <ul>
+ * <li>15001: the device list, and the JSON of each device (built from the recorded payloads)</li>
+ * <li>15004: the group list, and the JSON of each group</li>
+ * <li>15005: the scenes of each group</li>
+ * </ul>
+ * PUTs on the devices and groups are applied to the in-memory state (a group applies its on/off
+ * and dimmer to its members) and the devices and groups are observable.
+ *
+ * One device out of twenty is a remote control and one out of ten a control outlet, the others are
+ * color bulbs. Each request can be given an artificial service time, spent on a small pool of
+ * workers as the real gateway serves its requests slowly and a few at a time. Several simulators can
+ * run side by side on different loopback addresses (127.0.0.1, 127.0.0.2...).
+ */
+public class TradfriGatewaySimulator {
+
+	/**
+	 * Logger to be used for all console outputs, errors and exceptions
+	 */
+	private static final Logger log = LoggerFactory.getLogger(TradfriGatewaySimulator.class);
+
+	public static final int FIRST_DEVICE_ID = 65536;
+
+	public static final int FIRST_GROUP_ID = 131072;
+
+	public static final int FIRST_SCENE_ID = 196608;
+
+	public static final int SCENES_PER_GROUP = 3;
+
+	private static final String IDENTITY = "";
+
+	/**
+	 * Keys which are part of the state of a light or a socket, the others (e.g. the transition time) are dropped
+	 */
+	private static final List<String> STATE_KEYS = Arrays.asList(TradfriConstants.ONOFF, TradfriConstants.DIMMER,
+			TradfriConstants.COLOR, TradfriConstants.COLOR_X, TradfriConstants.COLOR_Y);
+
+	private final String host;
+
+	private final String securityKey;
+
+	private final int deviceCount;
+
+	private int groupCount;
+
+	private int serviceTime = 0;
+
+	private int serviceThreads = 1;
+
+	private NetworkConfig networkConfig = NetworkConfig.createStandardWithoutFile();
+
+	private final Map<Integer, DeviceResource> devices = new LinkedHashMap<Integer, DeviceResource>();
+
+	private final Map<Integer, GroupResource> groups = new LinkedHashMap<Integer, GroupResource>();
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong puts = new AtomicLong();
+
+	private CoapServer server;
+
+	private ExecutorService workers;
+
+	public TradfriGatewaySimulator(final String host, final String securityKey, final int deviceCount) {
+		this.host = host;
+		this.securityKey = securityKey;
+		this.deviceCount = deviceCount;
+		this.groupCount = Math.max(1, deviceCount / 10);
+	}
+
+	/**
+	 * Number of groups, the devices are spread over them (one group for ten devices by default)
+	 */
+	public void setGroupCount(final int groupCount) {
+		this.groupCount = Math.max(0, groupCount);
+	}
+
+	/**
+	 * Time spent serving each request, in milliseconds (0 by default, requests are answered at once)
+	 */
+	public void setServiceTime(final int serviceTime) {
+		this.serviceTime = Math.max(0, serviceTime);
+	}
+
+	/**
+	 * Requests served at the same time when a service time is set (1 by default)
+	 */
+	public void setServiceThreads(final int serviceThreads) {
+		this.serviceThreads = Math.max(1, serviceThreads);
+	}
+
+	public void setNetworkConfig(final NetworkConfig networkConfig) {
+		this.networkConfig = networkConfig;
+	}
+
+	public synchronized void start() {
+		if (server != null)
+			return;
+		build();
+
+		final InMemoryPskStore pskStore = new InMemoryPskStore();
+		pskStore.setKey(IDENTITY, securityKey.getBytes());
+		final DtlsConnectorConfig.Builder builder = new DtlsConnectorConfig.Builder();
+		builder.setAddress(new InetSocketAddress(host, TradfriPskStore.COAPS_PORT));
+		builder.setPskStore(pskStore);
+
+		workers = Executors.newFixedThreadPool(serviceThreads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, "tradfri-simulator-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		server = new CoapServer(networkConfig);
+		server.addEndpoint(new CoapEndpoint(new DTLSConnector(builder.build()), networkConfig));
+		server.add(new DeviceListResource(), new GroupListResource(), new SceneListResource());
+		server.start();
+		log.info("Simulated gateway started on " + getAddress() + " with " + devices.size() + " devices and " + groups.size() + " groups");
+	}
+
+	public synchronized void stop() {
+		if (server == null)
+			return;
+		server.destroy();
+		workers.shutdownNow();
+		server = null;
+		log.info("Simulated gateway on " + host + " stopped after " + requests.get() + " requests");
+	}
+
+	public synchronized boolean isRunning() {
+		return server != null;
+	}
+
+	public InetSocketAddress getAddress() {
+		return new InetSocketAddress(host, TradfriPskStore.COAPS_PORT);
+	}
+
+	public List<Integer> getDeviceIds() {
+		return Collections.unmodifiableList(new ArrayList<Integer>(devices.keySet()));
+	}
+
+	public List<Integer> getGroupIds() {
+		return Collections.unmodifiableList(new ArrayList<Integer>(groups.keySet()));
+	}
+
+	/**
+	 * Current JSON of a device as served to the clients, null for an unknown device
+	 */
+	public String getDeviceState(final int id) {
+		final DeviceResource device = devices.get(id);
+		return (device == null) ? null : device.toJson();
+	}
+
+	/**
+	 * Switches a bulb or an outlet on or off as its remote control would, the observers are notified
+	 */
+	public boolean toggle(final int id) {
+		final DeviceResource device = devices.get(id);
+		return device != null && device.toggle();
+	}
+
+	/**
+	 * Requests served, each observe notification included
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * PUTs applied to a device or a group
+	 */
+	public long getPuts() {
+		return puts.get();
+	}
+
+	/**
+	 * Builds the devices and groups, once: a restarted simulator keeps their state
+	 */
+	private void build() {
+		if (!devices.isEmpty() || deviceCount <= 0)
+			return;
+		for (int i = 0; i < deviceCount; i++) {
+			final int id = FIRST_DEVICE_ID + i;
+			final JSONObject json;
+			if (i % 20 == 0) {
+				json = new JSONObject(Payloads.REMOTE);
+			} else if (i % 10 == 5) {
+				json = new JSONObject(Payloads.OUTLET);
+				json.put(TradfriConstants.NAME, "Outlet " + i);
+			} else {
+				json = new JSONObject(Payloads.BULB_CWS);
+				json.put(TradfriConstants.NAME, "Bulb " + i);
+			}
+			json.put(TradfriConstants.INSTANCE_ID, id);
+			devices.put(id, new DeviceResource(id, json));
+		}
+
+		final List<List<Integer>> members = new ArrayList<List<Integer>>();
+		for (int g = 0; g < groupCount; g++) {
+			members.add(new ArrayList<Integer>());
+		}
+		int i = 0;
+		for (Integer id : devices.keySet()) {
+			if (groupCount > 0)
+				members.get(i++ % groupCount).add(id);
+		}
+		for (int g = 0; g < groupCount; g++) {
+			final int id = FIRST_GROUP_ID + g;
+			final JSONObject json = new JSONObject(Payloads.GROUP);
+			json.put(TradfriConstants.NAME, "Room " + g);
+			json.put(TradfriConstants.INSTANCE_ID, id);
+			json.put(TradfriConstants.SCENE_ID, FIRST_SCENE_ID + g * SCENES_PER_GROUP);
+			json.put(TradfriConstants.HS_ACCESSORY_LINK, new JSONObject().put(TradfriConstants.HS_LINK,
+					new JSONObject().put(TradfriConstants.INSTANCE_ID, new JSONArray(members.get(g)))));
+			groups.put(id, new GroupResource(id, json, members.get(g)));
+		}
+	}
+
+	/**
+	 * Runs the handler of a request after the service time, on the worker pool
+	 */
+	private void serve(final Runnable handler) {
+		requests.incrementAndGet();
+		if (serviceTime == 0) {
+			handler.run();
+			return;
+		}
+		try {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(serviceTime);
+					} catch (InterruptedException ex) {
+						// Stopped
+						return;
+					}
+					handler.run();
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			// Stopped, the request is dropped like by a gateway going offline
+		}
+	}
+
+	private static JSONObject parsePayload(final CoapExchange exchange) {
+		try {
+			return new JSONObject(exchange.getRequestText());
+		} catch (JSONException ex) {
+			exchange.respond(ResponseCode.BAD_REQUEST, ex.getMessage());
+			return null;
+		}
+	}
+
+	private static String listIds(final Iterator<Integer> ids) {
+		final JSONArray array = new JSONArray();
+		while (ids.hasNext()) {
+			array.put(ids.next());
+		}
+		return array.toString();
+	}
+
+	/**
+	 * Resource whose requests go through the service time
+	 */
+	private abstract class SimulatedResource extends CoapResource {
+
+		protected SimulatedResource(final String name) {
+			super(name);
+		}
+
+		@Override
+		public void handleGET(final CoapExchange exchange) {
+			serve(new Runnable() {
+				@Override
+				public void run() {
+					get(exchange);
+				}
+			});
+		}
+
+		@Override
+		public void handlePUT(final CoapExchange exchange) {
+			serve(new Runnable() {
+				@Override
+				public void run() {
+					put(exchange);
+				}
+			});
+		}
+
+		protected abstract void get(CoapExchange exchange);
+
+		protected void put(final CoapExchange exchange) {
+			exchange.respond(ResponseCode.METHOD_NOT_ALLOWED);
+		}
+
+	}
+
+	private class DeviceListResource extends SimulatedResource {
+
+		private DeviceListResource() {
+			super(TradfriConstants.DEVICES);
+			for (DeviceResource device : devices.values()) {
+				add(device);
+			}
+		}
+
+		@Override
+		protected void get(final CoapExchange exchange) {
+			exchange.respond(listIds(devices.keySet().iterator()));
+		}
+
+	}
+
+	private class DeviceResource extends SimulatedResource {
+
+		private final JSONObject json;
+
+		/**
+		 * Instance holding the state of a bulb (LIGHT) or an outlet (CONTROL), null for the other devices
+		 */
+		private final JSONObject state;
+
+		private DeviceResource(final int id, final JSONObject json) {
+			super(String.valueOf(id));
+			this.json = json;
+			final JSONArray instances = (json.has(TradfriConstants.LIGHT)) ? json.getJSONArray(TradfriConstants.LIGHT) : json.optJSONArray(TradfriConstants.CONTROL);
+			this.state = (instances == null) ? null : instances.getJSONObject(0);
+			setObservable(true);
+		}
+
+		private synchronized String toJson() {
+			return json.toString();
+		}
+
+		@Override
+		protected void get(final CoapExchange exchange) {
+			exchange.respond(toJson());
+		}
+
+		@Override
+		protected void put(final CoapExchange exchange) {
+			final JSONObject payload = parsePayload(exchange);
+			if (payload == null)
+				return;
+			final String key = (json.has(TradfriConstants.LIGHT)) ? TradfriConstants.LIGHT : TradfriConstants.CONTROL;
+			final JSONArray instances = payload.optJSONArray(key);
+			if (state == null || instances == null || instances.length() == 0) {
+				exchange.respond(ResponseCode.BAD_REQUEST, "No " + key + " instance in the payload");
+				return;
+			}
+			puts.incrementAndGet();
+			apply(instances.getJSONObject(0));
+			exchange.respond(ResponseCode.CHANGED);
+		}
+
+		/**
+		 * Applies the state keys of the payload, the observers are notified if the state changed
+		 */
+		private void apply(final JSONObject changes) {
+			if (state == null)
+				return;
+			boolean changed = false;
+			synchronized (this) {
+				for (String key : STATE_KEYS) {
+					if (changes.has(key) && !changes.get(key).equals(state.opt(key))) {
+						state.put(key, changes.get(key));
+						changed = true;
+					}
+				}
+				json.put(TradfriConstants.DATE_LAST_SEEN, System.currentTimeMillis() / 1000);
+			}
+			if (changed)
+				changed();
+		}
+
+		private boolean toggle() {
+			if (state == null)
+				return false;
+			final int on;
+			synchronized (this) {
+				on = (state.optInt(TradfriConstants.ONOFF) == 0) ? 1 : 0;
+			}
+			apply(new JSONObject().put(TradfriConstants.ONOFF, on));
+			return true;
+		}
+
+	}
+
+	private class GroupListResource extends SimulatedResource {
+
+		private GroupListResource() {
+			super(TradfriConstants.GROUPS);
+			for (GroupResource group : groups.values()) {
+				add(group);
+			}
+		}
+
+		@Override
+		protected void get(final CoapExchange exchange) {
+			exchange.respond(listIds(groups.keySet().iterator()));
+		}
+
+	}
+
+	private class GroupResource extends SimulatedResource {
+
+		private final JSONObject json;
+
+		private final List<Integer> members;
+
+		private GroupResource(final int id, final JSONObject json, final List<Integer> members) {
+			super(String.valueOf(id));
+			this.json = json;
+			this.members = members;
+			setObservable(true);
+		}
+
+		private synchronized String toJson() {
+			return json.toString();
+		}
+
+		@Override
+		protected void get(final CoapExchange exchange) {
+			exchange.respond(toJson());
+		}
+
+		@Override
+		protected void put(final CoapExchange exchange) {
+			final JSONObject payload = parsePayload(exchange);
+			if (payload == null)
+				return;
+			puts.incrementAndGet();
+			final JSONObject changes = new JSONObject();
+			synchronized (this) {
+				for (String key : new String[] { TradfriConstants.ONOFF, TradfriConstants.DIMMER, TradfriConstants.SCENE_ID }) {
+					if (payload.has(key)) {
+						json.put(key, payload.get(key));
+						if (!TradfriConstants.SCENE_ID.equals(key))
+							changes.put(key, payload.get(key));
+					}
+				}
+			}
+			changed();
+			for (Integer member : members) {
+				devices.get(member).apply(changes);
+			}
+			exchange.respond(ResponseCode.CHANGED);
+		}
+
+	}
+
+	/**
+	 * 15005: the groups having scenes, then the scenes of each group
+	 */
+	private class SceneListResource extends SimulatedResource {
+
+		private SceneListResource() {
+			super(TradfriConstants.SCENE);
+			for (Integer group : groups.keySet()) {
+				add(new GroupScenesResource(group));
+			}
+		}
+
+		@Override
+		protected void get(final CoapExchange exchange) {
+			exchange.respond(listIds(groups.keySet().iterator()));
+		}
+
+	}
+
+	private class GroupScenesResource extends SimulatedResource {
+
+		private final List<Integer> scenes = new ArrayList<Integer>();
+
+		private GroupScenesResource(final int group) {
+			super(String.valueOf(group));
+			final int first = FIRST_SCENE_ID + (group - FIRST_GROUP_ID) * SCENES_PER_GROUP;
+			for (int i = 0; i < SCENES_PER_GROUP; i++) {
+				scenes.add(first + i);
+				add(new SceneResource(first + i, i));
+			}
+		}
+
+		@Override
+		protected void get(final CoapExchange exchange) {
+			exchange.respond(listIds(scenes.iterator()));
+		}
+
+	}
+
+	private class SceneResource extends SimulatedResource {
+
+		private final String json;
+
+		private SceneResource(final int id, final int index) {
+			super(String.valueOf(id));
+			this.json = new JSONObject()
+					.put(TradfriConstants.NAME, "Scene " + index)
+					.put(TradfriConstants.INSTANCE_ID, id)
+					.put(TradfriConstants.IKEA_MOODS, 1)
+					.toString();
+		}
+
+		@Override
+		protected void get(final CoapExchange exchange) {
+			exchange.respond(json);
+		}
+
+	}
+
+	/**
+	 * Runs a simulated gateway until the JVM is stopped.
+	 * Arguments: host (127.0.0.1), security key (simulator), devices (100), service time in ms (0)
+	 */
+	public static void main(final String[] args) {
+		final String host = (args.length > 0) ? args[0] : "127.0.0.1";
+		final String key = (args.length > 1) ? args[1] : "simulator";
+		final int count = (args.length > 2) ? Integer.parseInt(args[2]) : 100;
+		final TradfriGatewaySimulator simulator = new TradfriGatewaySimulator(host, key, count);
+		if (args.length > 3)
+			simulator.setServiceTime(Integer.parseInt(args[3]));
+		simulator.start();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				simulator.stop();
+			}
+		});
+		System.out.println("Simulated gateway on " + host + ", security key \"" + key + "\", " + count + " devices");
+	}
+
+}
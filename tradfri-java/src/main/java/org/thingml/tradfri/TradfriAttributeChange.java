@@ -0,0 +1,47 @@
+package org.thingml.tradfri;
+
+import org.thingml.tradfri.packet.TradfriResourcePacket;
+
+/**
+ * Change of one attribute of a device or group, identified by its key in the gateway API (e.g.
+ * {@link TradfriConstants#ONOFF}). The values are a Boolean for ONOFF and DEVICE_REACHABLE,
+ * an Integer for DIMMER and a String for COLOR and NAME.
+ */
+public class TradfriAttributeChange {
+
+	private final TradfriResourcePacket<?> device;
+
+	private final String attribute;
+
+	private final Object oldValue;
+
+	private final Object newValue;
+
+	public TradfriAttributeChange(final TradfriResourcePacket<?> device, final String attribute, final Object oldValue, final Object newValue) {
+		this.device = device;
+		this.attribute = attribute;
+		this.oldValue = oldValue;
+		this.newValue = newValue;
+	}
+
+	public TradfriResourcePacket<?> getDevice() {
+		return device;
+	}
+
+	public String getAttribute() {
+		return attribute;
+	}
+
+	public Object getOldValue() {
+		return oldValue;
+	}
+
+	public Object getNewValue() {
+		return newValue;
+	}
+
+	public String toString() {
+		return "[CHANGE " + device.getId() + "]\t" + attribute + ": " + oldValue + " -> " + newValue;
+	}
+
+}
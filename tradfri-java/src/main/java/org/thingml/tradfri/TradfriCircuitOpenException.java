@@ -0,0 +1,16 @@
+package org.thingml.tradfri;
+
+import java.io.IOException;
+
+/**
+ * Failure of a request not sent because the gateway is considered unreachable, see {@link TradfriHealthMonitor}
+ */
+public class TradfriCircuitOpenException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public TradfriCircuitOpenException(final String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,86 @@
+package org.thingml.tradfri;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.network.Endpoint;
+
+/**
+ * Cache of the CoapClients used to exchange with the resources of a gateway.
+ *
+ * Clients are keyed by resource path (e.g. "15001/65537", i.e. resource type and device id)
+ * and are shared by the polling loop, the observe relations and the command API, so the
+ * URI of a resource is only built and parsed once instead of on every exchange.
+ * One client is kept per known resource, whatever the size of the installation: the gateway
+ * evicts the clients of a device or group when it is removed. Lookups do not lock.
+ */
+public class TradfriClientCache {
+
+	private volatile Binding binding = new Binding(null, null);
+
+	/**
+	 * Binds the cache to an endpoint and a base URI (e.g. "coaps://192.168.1.13/").
+	 * All the clients created for a previous endpoint are dropped.
+	 */
+	public void bind(final Endpoint endpoint, final String baseUri) {
+		binding = new Binding(endpoint, baseUri);
+	}
+
+	/**
+	 * Returns the client of the resource, creating it if it is not cached yet
+	 */
+	public CoapClient get(final String path) {
+		final Binding current = binding;
+		CoapClient client = current.clients.get(path);
+		if (client == null) {
+			if (current.endpoint == null)
+				throw new IllegalStateException("Client cache is not bound to an endpoint");
+			client = new CoapClient(current.baseUri + path);
+			client.setEndpoint(current.endpoint);
+			final CoapClient previous = current.clients.putIfAbsent(path, client);
+			if (previous != null)
+				client = previous;
+		}
+		return client;
+	}
+
+	/**
+	 * Evicts the client of the resource and the clients of all its sub resources
+	 */
+	public void invalidate(final String path) {
+		final String prefix = path + "/";
+		final Iterator<String> it = binding.clients.keySet().iterator();
+		while (it.hasNext()) {
+			final String key = it.next();
+			if (key.equals(path) || key.startsWith(prefix))
+				it.remove();
+		}
+	}
+
+	public void clear() {
+		binding.clients.clear();
+	}
+
+	public int size() {
+		return binding.clients.size();
+	}
+
+	/**
+	 * Endpoint and base URI together with the clients created for them, replaced as a whole on bind
+	 */
+	private static class Binding {
+
+		private final Endpoint endpoint;
+
+		private final String baseUri;
+
+		private final ConcurrentHashMap<String, CoapClient> clients = new ConcurrentHashMap<String, CoapClient>();
+
+		private Binding(final Endpoint endpoint, final String baseUri) {
+			this.endpoint = endpoint;
+			this.baseUri = baseUri;
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package org.thingml.tradfri;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Attribute changes sent to a device in a single PUT, e.g. {"3311":[{"5850":1,"5851":254}]},
+ * or to a group, whose attributes are not wrapped in an object, e.g. {"5850":1,"5851":254}.
+ *
+ * Commands for the same device can be merged: the newer value of an attribute wins, and the hex
+ * color (COLOR) and the xy color (COLOR_X/COLOR_Y) replace each other.
+ */
+public class TradfriCommand {
+
+	/**
+	 * LwM2M object holding the attributes (LIGHT, CONTROL...), null for groups
+	 */
+	private final String object;
+
+	private final Map<String, Object> settings = new LinkedHashMap<String, Object>();
+
+	public TradfriCommand() {
+		this(null);
+	}
+
+	public TradfriCommand(final String object) {
+		this.object = object;
+	}
+
+	public String getObject() {
+		return object;
+	}
+
+	public TradfriCommand set(final String attribute, final int value) {
+		return put(attribute, value);
+	}
+
+	public TradfriCommand set(final String attribute, final String value) {
+		return put(attribute, value);
+	}
+
+	public Map<String, Object> getSettings() {
+		return Collections.unmodifiableMap(settings);
+	}
+
+	public boolean isEmpty() {
+		return settings.isEmpty();
+	}
+
+	/**
+	 * Applies the attributes of a newer command on top of this one
+	 */
+	public void merge(final TradfriCommand newer) {
+		for (Map.Entry<String, Object> e : newer.settings.entrySet()) {
+			put(e.getKey(), e.getValue());
+		}
+	}
+
+	public TradfriCommand copy() {
+		final TradfriCommand copy = new TradfriCommand(object);
+		copy.settings.putAll(settings);
+		return copy;
+	}
+
+	/**
+	 * Encodes the payload sent to the gateway, see {@link TradfriPayloadEncoder}
+	 */
+	public byte[] encode() {
+		return TradfriPayloadEncoder.encode(object, settings);
+	}
+
+	public String toPayload() {
+		if (object == null)
+			return new JSONObject(settings).toString();
+		final JSONObject json = new JSONObject();
+		final JSONArray array = new JSONArray();
+		array.put(new JSONObject(settings));
+		json.put(object, array);
+		return json.toString();
+	}
+
+	private TradfriCommand put(final String attribute, final Object value) {
+		if (TradfriConstants.COLOR.equals(attribute)) {
+			settings.remove(TradfriConstants.COLOR_X);
+			settings.remove(TradfriConstants.COLOR_Y);
+		} else if (TradfriConstants.COLOR_X.equals(attribute) || TradfriConstants.COLOR_Y.equals(attribute)) {
+			settings.remove(TradfriConstants.COLOR);
+		}
+		settings.put(attribute, value);
+		return this;
+	}
+
+	public String toString() {
+		return toPayload();
+	}
+
+}
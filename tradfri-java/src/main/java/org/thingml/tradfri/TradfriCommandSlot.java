@@ -0,0 +1,97 @@
+package org.thingml.tradfri;
+
+import org.eclipse.californium.core.CoapResponse;
+import org.thingml.tradfri.listener.TradfriFutureListener;
+
+/**
+ * Outgoing command slot of a device.
+ *
+ * Only one PUT per device is in flight at a time. Commands submitted meanwhile are merged into a
+ * single pending command (the newer value of an attribute wins), so once the gateway has answered
+ * the previous PUT all the pending changes are sent in one PUT carrying only the latest state.
+ * The callers of merged commands all get the response of that PUT.
+ */
+class TradfriCommandSlot {
+
+	private final TradfriGateway gateway;
+
+	private final String path;
+
+	/**
+	 * Changes waiting for the PUT in flight to complete
+	 */
+	private Pending pending = null;
+
+	private boolean inFlight = false;
+
+	TradfriCommandSlot(final TradfriGateway gateway, final String path) {
+		this.gateway = gateway;
+		this.path = path;
+	}
+
+	TradfriFuture<CoapResponse> submit(final TradfriCommand command) {
+		final Pending toSend;
+		synchronized (this) {
+			if (inFlight) {
+				if (pending == null) {
+					pending = new Pending(command.copy());
+				} else {
+					pending.command.merge(command);
+					gateway.getMetrics().commandCoalesced();
+				}
+				return pending.future;
+			}
+			inFlight = true;
+			toSend = new Pending(command);
+		}
+		send(toSend);
+		return toSend.future;
+	}
+
+	synchronized boolean hasPending() {
+		return pending != null;
+	}
+
+	private void send(final Pending toSend) {
+		gateway.getMetrics().commandSent();
+		gateway.setAsync(path, toSend.command.encode()).addListener(new TradfriFutureListener<CoapResponse>() {
+			@Override
+			public void completed(final CoapResponse response) {
+				toSend.future.complete(response);
+				sendNext();
+			}
+
+			@Override
+			public void failed(final Throwable cause) {
+				toSend.future.fail(cause);
+				sendNext();
+			}
+		});
+	}
+
+	private void sendNext() {
+		final Pending toSend;
+		synchronized (this) {
+			if (pending == null) {
+				inFlight = false;
+				return;
+			}
+			toSend = pending;
+			pending = null;
+		}
+		send(toSend);
+	}
+
+	private static class Pending {
+
+		private final TradfriFuture<CoapResponse> future = new TradfriFuture<CoapResponse>();
+
+		private final TradfriCommand command;
+
+		private Pending(final TradfriCommand command) {
+			this.command = command;
+		}
+
+	}
+
+}
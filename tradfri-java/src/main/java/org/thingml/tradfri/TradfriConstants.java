@@ -32,6 +32,7 @@ public class TradfriConstants {
         public static final String DEVICE_REACHABLE = "9019"; // 0 or 1 seems to go to 0 after a few minutes if the device is not reachable
 	public static final String INSTANCE_ID = "9003"; // In devices: device ID. In groups: list of device IDs
 	public static final String HS_ACCESSORY_LINK = "9018"; // Groups have this entry
+	public static final String HS_LINK = "15002"; // Inside HS_ACCESSORY_LINK: INSTANCE_ID holds the ids of the group members
 	public static final String IKEA_MOODS = "9068"; // Moods have this entry
 	public static final String LIGHT = "3311"; // urn:oma:lwm2m:ext:3311 in LwM2M registry
 	public static final String CONTROL = "3312"; // urn:oma:lwm2m:ext:3312 in LwM2M registry
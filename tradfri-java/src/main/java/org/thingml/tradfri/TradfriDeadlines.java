@@ -0,0 +1,68 @@
+package org.thingml.tradfri;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.californium.core.coap.Request;
+import org.thingml.tradfri.listener.TradfriFutureListener;
+
+/**
+ * Deadlines of the requests to the gateways.
+ *
+ * A single daemon timer thread fails the futures still pending at their deadline with a
+ * {@link TimeoutException} and cancels their request, so Californium stops retransmitting it. The
+ * timeouts of the futures done in time are removed from the timer at once.
+ */
+final class TradfriDeadlines {
+
+	private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread thread = new Thread(r, "tradfri-deadlines");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	static {
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	private TradfriDeadlines() {
+	}
+
+	/**
+	 * Fails the future if it is not done within the timeout, and cancels the request (if any) then
+	 */
+	static <V> TradfriFuture<V> expire(final TradfriFuture<V> future, final long timeout, final TimeUnit unit, final Request request) {
+		if (future.isDone())
+			return future;
+		final ScheduledFuture<?> expiry = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (future.isDone())
+					return;
+				// Cancelled first, so the request is no longer retransmitted once the waiters see the timeout
+				if (request != null)
+					request.cancel();
+				future.fail(new TimeoutException("No response within " + unit.toMillis(timeout) + "ms"));
+			}
+		}, timeout, unit);
+		future.addListener(new TradfriFutureListener<V>() {
+			@Override
+			public void completed(final V result) {
+				expiry.cancel(false);
+			}
+
+			@Override
+			public void failed(final Throwable cause) {
+				expiry.cancel(false);
+			}
+		});
+		return future;
+	}
+
+}
@@ -0,0 +1,104 @@
+package org.thingml.tradfri;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.thingml.tradfri.packet.TradfriControlOutletPacket;
+import org.thingml.tradfri.packet.TradfriHardwarePacket;
+import org.thingml.tradfri.packet.TradfriLightBulbPacket;
+
+/**
+ * Devices of a gateway, by instance id and by device type.
+ *
+ * Lookups by id go through a concurrent map and the lists of a device type are immutable snapshots
+ * replaced on every change, so readers never lock and can iterate while the gateway thread adds or
+ * removes devices. Changes are serialized, they only happen on discovery.
+ */
+public class TradfriDeviceRegistry {
+
+	private final Map<Integer, TradfriHardwarePacket<?>> devices = new ConcurrentHashMap<Integer, TradfriHardwarePacket<?>>();
+
+	/**
+	 * Snapshot of the devices of each packet class, in the order they were added
+	 */
+	private final Map<Class<?>, List<?>> snapshots = new ConcurrentHashMap<Class<?>, List<?>>();
+
+	public TradfriHardwarePacket<?> get(final int id) {
+		return devices.get(id);
+	}
+
+	/**
+	 * Device with the given id if it is of the given type, null otherwise
+	 */
+	public <T extends TradfriHardwarePacket<?>> T get(final int id, final Class<T> type) {
+		final TradfriHardwarePacket<?> device = devices.get(id);
+		return type.isInstance(device) ? type.cast(device) : null;
+	}
+
+	public boolean contains(final int id) {
+		return devices.containsKey(id);
+	}
+
+	public int size() {
+		return devices.size();
+	}
+
+	/**
+	 * Immutable snapshot of the devices of the given type
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends TradfriHardwarePacket<?>> List<T> getDevices(final Class<T> type) {
+		return (List<T>) snapshot(type);
+	}
+
+	public List<TradfriLightBulbPacket> getLightBulbs() {
+		return getDevices(TradfriLightBulbPacket.class);
+	}
+
+	public List<TradfriControlOutletPacket> getControlOutlets() {
+		return getDevices(TradfriControlOutletPacket.class);
+	}
+
+	/**
+	 * Immutable snapshot of all the devices
+	 */
+	public List<TradfriHardwarePacket<?>> getDevices() {
+		return Collections.unmodifiableList(new ArrayList<TradfriHardwarePacket<?>>(devices.values()));
+	}
+
+	synchronized void add(final TradfriHardwarePacket<?> device) {
+		final TradfriHardwarePacket<?> previous = devices.put(device.getId(), device);
+		if (previous != null)
+			removeFromSnapshot(previous);
+		final List<Object> snapshot = new ArrayList<Object>(snapshot(device.getClass()));
+		snapshot.add(device);
+		snapshots.put(device.getClass(), Collections.unmodifiableList(snapshot));
+	}
+
+	synchronized TradfriHardwarePacket<?> remove(final int id) {
+		final TradfriHardwarePacket<?> device = devices.remove(id);
+		if (device != null)
+			removeFromSnapshot(device);
+		return device;
+	}
+
+	synchronized void clear() {
+		devices.clear();
+		snapshots.clear();
+	}
+
+	private List<?> snapshot(final Class<?> type) {
+		final List<?> snapshot = snapshots.get(type);
+		return (snapshot == null) ? Collections.emptyList() : snapshot;
+	}
+
+	private void removeFromSnapshot(final TradfriHardwarePacket<?> device) {
+		final List<Object> snapshot = new ArrayList<Object>(snapshot(device.getClass()));
+		snapshot.remove(device);
+		snapshots.put(device.getClass(), Collections.unmodifiableList(snapshot));
+	}
+
+}
@@ -0,0 +1,10 @@
+package org.thingml.tradfri;
+
+/**
+ * Notification of a listener, delivered by a {@link TradfriEventDispatcher}
+ */
+public abstract class TradfriEvent<L> {
+
+	public abstract void deliver(L listener);
+
+}
@@ -0,0 +1,249 @@
+package org.thingml.tradfri;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the events to the listeners off the polling and CoAP threads.
+ *
+ * Events are dispatched to a fixed number of stripes, each with its own thread and bounded queue.
+ * The stripe is chosen from a key (the instance id of the device, or {@link #GATEWAY_KEY} for the
+ * gateway events), so the events of a device are always delivered in order while a slow listener
+ * only delays the devices sharing its stripe. Listener exceptions are logged and counted instead
+ * of being swallowed.
+ *
+ * A full queue never blocks the caller: it is usually a Californium thread, which a listener waiting
+ * for the response of a command may depend on. An event of a device or group beyond the capacity of
+ * its queue is dropped and counted instead; the state it announced is still on the packet, and is
+ * announced again by the next change. The events of the gateway are announced only once (discovery,
+ * start and stop, polling cycles, health), so they are never dropped: they are queued whatever the
+ * capacity, which only bounds the events of the devices and groups.
+ */
+public class TradfriEventDispatcher {
+
+	/**
+	 * Logger to be used for all console outputs, errors and exceptions
+	 */
+	private static final Logger log = LoggerFactory.getLogger(TradfriEventDispatcher.class);
+
+	public static final int DEFAULT_STRIPES = 4;
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	/**
+	 * Key of the events of the gateway itself (discovery, polling cycles...), never dropped
+	 */
+	public static final int GATEWAY_KEY = 0;
+
+	private final Stripe[] stripes;
+
+	private final ConcurrentHashMap<String, TradfriListenerMetrics> listenerMetrics = new ConcurrentHashMap<String, TradfriListenerMetrics>();
+
+	private final AtomicLong maxQueueDepth = new AtomicLong();
+
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+
+	private final AtomicLong delivered = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Time from the dispatch of an event to the end of its delivery to a listener
+	 */
+	private final TradfriHistogram latency = new TradfriHistogram();
+
+	public TradfriEventDispatcher() {
+		this(DEFAULT_STRIPES, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public TradfriEventDispatcher(final int stripes, final int queueCapacity) {
+		this.stripes = new Stripe[Math.max(1, stripes)];
+		for (int i = 0; i < this.stripes.length; i++) {
+			this.stripes[i] = new Stripe(i, Math.max(1, queueCapacity));
+			this.stripes[i].start();
+		}
+	}
+
+	/**
+	 * Delivers an event to each listener on the stripe of the key
+	 */
+	public <L> void dispatch(final int key, final Collection<L> listeners, final TradfriEvent<L> event) {
+		if (listeners.isEmpty())
+			return;
+		final Stripe stripe = stripes[(key & Integer.MAX_VALUE) % stripes.length];
+		for (L listener : listeners) {
+			stripe.submit(new Task<L>(listener, event), key != GATEWAY_KEY);
+		}
+	}
+
+	/**
+	 * Delivers an event to each listener on the calling thread, for packets not attached to a gateway
+	 */
+	public static <L> void deliver(final List<L> listeners, final TradfriEvent<L> event) {
+		for (L listener : listeners) {
+			try {
+				event.deliver(listener);
+			} catch (Exception ex) {
+				log.warn("Listener " + listener + " failed", ex);
+			}
+		}
+	}
+
+	/**
+	 * Stops the stripe threads, the events still queued are dropped
+	 */
+	public void shutdown() {
+		for (Stripe stripe : stripes) {
+			stripe.interrupt();
+		}
+	}
+
+	/**
+	 * Events currently waiting in the queues
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (Stripe stripe : stripes) {
+			depth += stripe.queue.size();
+		}
+		return depth;
+	}
+
+	/**
+	 * Deepest queue of a stripe seen so far
+	 */
+	public long getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	/**
+	 * Events of the devices and groups dropped because the queue of their stripe was full
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Average time the events waited in the queues before being delivered, in microseconds
+	 */
+	public long getAverageWaitMicros() {
+		final long n = delivered.get();
+		return (n == 0) ? 0 : totalWaitNanos.get() / n / 1000;
+	}
+
+	/**
+	 * Time from the dispatch of the events to the end of their delivery, queueing included
+	 */
+	public TradfriHistogram getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Delivery statistics by listener class
+	 */
+	public Collection<TradfriListenerMetrics> getListenerMetrics() {
+		return listenerMetrics.values();
+	}
+
+	private void run(final Task<?> task) {
+		final long start = System.nanoTime();
+		boolean failed = false;
+		try {
+			task.run();
+		} catch (Exception ex) {
+			failed = true;
+			log.warn("Listener " + task.listener + " failed", ex);
+		}
+		final long end = System.nanoTime();
+		metrics(task.listener).delivered(end - start, failed);
+		totalWaitNanos.addAndGet(start - task.queued);
+		delivered.incrementAndGet();
+		latency.record(end - task.queued);
+	}
+
+	private TradfriListenerMetrics metrics(final Object listener) {
+		final String name = listener.getClass().getName();
+		TradfriListenerMetrics metrics = listenerMetrics.get(name);
+		if (metrics == null) {
+			metrics = new TradfriListenerMetrics(name);
+			final TradfriListenerMetrics previous = listenerMetrics.putIfAbsent(name, metrics);
+			if (previous != null)
+				metrics = previous;
+		}
+		return metrics;
+	}
+
+	private static class Task<L> {
+
+		private final L listener;
+
+		private final TradfriEvent<L> event;
+
+		private final long queued = System.nanoTime();
+
+		private Task(final L listener, final TradfriEvent<L> event) {
+			this.listener = listener;
+			this.event = event;
+		}
+
+		private void run() {
+			event.deliver(listener);
+		}
+
+	}
+
+	private class Stripe extends Thread {
+
+		private final BlockingQueue<Task<?>> queue = new LinkedBlockingQueue<Task<?>>();
+
+		/**
+		 * Depth beyond which the droppable events are dropped
+		 */
+		private final int capacity;
+
+		private Stripe(final int index, final int capacity) {
+			super("tradfri-events-" + index);
+			setDaemon(true);
+			this.capacity = capacity;
+		}
+
+		private void submit(final Task<?> task, final boolean droppable) {
+			if (Thread.currentThread() == this) {
+				// Fired by a listener of this stripe: delivered at once rather than dropped by its own full queue
+				TradfriEventDispatcher.this.run(task);
+				return;
+			}
+			if (droppable && queue.size() >= capacity) {
+				final long n = dropped.incrementAndGet();
+				if (n % 1000 == 1)
+					log.warn("Event queue of " + getName() + " full, " + n + " events dropped so far (slow listener " + task.listener + "?)");
+				return;
+			}
+			queue.add(task);
+			final long depth = queue.size();
+			long max = maxQueueDepth.get();
+			while (depth > max && !maxQueueDepth.compareAndSet(max, depth))
+				max = maxQueueDepth.get();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!isInterrupted()) {
+					TradfriEventDispatcher.this.run(queue.take());
+				}
+			} catch (InterruptedException ex) {
+				// Shut down
+			}
+		}
+
+	}
+
+}
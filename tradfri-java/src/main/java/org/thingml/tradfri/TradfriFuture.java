@@ -0,0 +1,180 @@
+package org.thingml.tradfri;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.thingml.tradfri.listener.TradfriFutureListener;
+
+/**
+ * Result of an asynchronous exchange with the gateway.
+ *
+ * The future is completed from the Californium threads when the response arrives, listeners
+ * added with {@link #addListener(TradfriFutureListener)} are notified on completion (or at once
+ * if the future is already done) and {@link #all(Collection)} joins on many futures.
+ */
+public class TradfriFuture<V> implements Future<V> {
+
+	/**
+	 * Logger to be used for all console outputs, errors and exceptions
+	 */
+	private static final Logger log = LoggerFactory.getLogger(TradfriFuture.class);
+
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	private final List<TradfriFutureListener<? super V>> listeners = new ArrayList<TradfriFutureListener<? super V>>();
+
+	private boolean completed = false;
+
+	private V result = null;
+
+	private Throwable failure = null;
+
+	public static <V> TradfriFuture<V> completed(final V result) {
+		final TradfriFuture<V> future = new TradfriFuture<V>();
+		future.complete(result);
+		return future;
+	}
+
+	public static <V> TradfriFuture<V> failed(final Throwable cause) {
+		final TradfriFuture<V> future = new TradfriFuture<V>();
+		future.fail(cause);
+		return future;
+	}
+
+	/**
+	 * Returns a future completed when all the futures are done. It fails with the first failure.
+	 */
+	public static TradfriFuture<Void> all(final Collection<? extends TradfriFuture<?>> futures) {
+		final TradfriFuture<Void> all = new TradfriFuture<Void>();
+		if (futures.isEmpty()) {
+			all.complete(null);
+			return all;
+		}
+		final AtomicInteger remaining = new AtomicInteger(futures.size());
+		final TradfriFutureListener<Object> listener = new TradfriFutureListener<Object>() {
+			@Override
+			public void completed(final Object result) {
+				if (remaining.decrementAndGet() == 0)
+					all.complete(null);
+			}
+
+			@Override
+			public void failed(final Throwable cause) {
+				all.fail(cause);
+			}
+		};
+		for (TradfriFuture<?> future : futures) {
+			future.addListener(listener);
+		}
+		return all;
+	}
+
+	/**
+	 * @return false if the future was already done
+	 */
+	public boolean complete(final V result) {
+		synchronized (this) {
+			if (completed)
+				return false;
+			this.completed = true;
+			this.result = result;
+		}
+		done.countDown();
+		notifyListeners();
+		return true;
+	}
+
+	/**
+	 * @return false if the future was already done
+	 */
+	public boolean fail(final Throwable cause) {
+		synchronized (this) {
+			if (completed)
+				return false;
+			this.completed = true;
+			this.failure = cause;
+		}
+		done.countDown();
+		notifyListeners();
+		return true;
+	}
+
+	@Override
+	public boolean cancel(final boolean mayInterruptIfRunning) {
+		return fail(new CancellationException());
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return failure instanceof CancellationException;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return completed;
+	}
+
+	@Override
+	public V get() throws InterruptedException, ExecutionException {
+		done.await();
+		return getResult();
+	}
+
+	@Override
+	public V get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit))
+			throw new TimeoutException();
+		return getResult();
+	}
+
+	public void addListener(final TradfriFutureListener<? super V> listener) {
+		synchronized (this) {
+			if (!completed) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		notifyListener(listener);
+	}
+
+	private synchronized V getResult() throws ExecutionException {
+		if (failure instanceof CancellationException)
+			throw (CancellationException) failure;
+		if (failure != null)
+			throw new ExecutionException(failure);
+		return result;
+	}
+
+	private void notifyListeners() {
+		final List<TradfriFutureListener<? super V>> toNotify;
+		synchronized (this) {
+			toNotify = new ArrayList<TradfriFutureListener<? super V>>(listeners);
+			listeners.clear();
+		}
+		for (TradfriFutureListener<? super V> listener : toNotify) {
+			notifyListener(listener);
+		}
+	}
+
+	private void notifyListener(final TradfriFutureListener<? super V> listener) {
+		try {
+			if (failure == null)
+				listener.completed(result);
+			else
+				listener.failed(failure);
+		} catch (Exception ex) {
+			log.error("Error in future listener", ex);
+		}
+	}
+
+}
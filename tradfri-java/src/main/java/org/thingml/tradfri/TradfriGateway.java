@@ -1,25 +1,53 @@
 package org.thingml.tradfri;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapObserveRelation;
 import org.eclipse.californium.core.CoapResponse;
 import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.network.CoapEndpoint;
 import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.scandium.DTLSConnector;
 import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
+import org.eclipse.californium.scandium.dtls.SessionId;
 import org.eclipse.californium.scandium.dtls.pskstore.StaticPskStore;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.thingml.tradfri.listener.TradfriFutureListener;
 import org.thingml.tradfri.listener.TradfriGatewayListener;
+import org.thingml.tradfri.listener.TradfriHealthListener;
 import org.thingml.tradfri.packet.TradfriControlOutletPacket;
+import org.thingml.tradfri.packet.TradfriGroupPacket;
+import org.thingml.tradfri.packet.TradfriHardwarePacket;
 import org.thingml.tradfri.packet.TradfriLightBulbPacket;
+import org.thingml.tradfri.packet.TradfriPacket;
+import org.thingml.tradfri.packet.TradfriResourcePacket;
 
 public class TradfriGateway implements Runnable {
 
@@ -27,35 +55,156 @@ public class TradfriGateway implements Runnable {
 	 * Logger to be used for all console outputs, errors and exceptions
 	 */
 	private static final Logger log = LoggerFactory.getLogger(TradfriGateway.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
 	
 	/**
 	 * Observer pattern for asynchronous event notification
 	 */
-	private final List<TradfriGatewayListener> listeners = new ArrayList<TradfriGatewayListener>();
-	
+	private final List<TradfriGatewayListener> listeners = new CopyOnWriteArrayList<TradfriGatewayListener>();
+
+	private final List<TradfriHealthListener> healthListeners = new CopyOnWriteArrayList<TradfriHealthListener>();
+
+	/**
+	 * Circuit breaker on the connection, see {@link TradfriHealthMonitor}
+	 */
+	private final TradfriHealthMonitor health = new TradfriHealthMonitor(this);
+
+	private static final long NO_DEADLINE = Long.MAX_VALUE;
+
 	/**
-	 * Collection of bulbs registered on the gateway
+	 * Time budget of a polling cycle, 0 for none
 	 */
-	private final List<TradfriLightBulbPacket> lightBulbs = new ArrayList<TradfriLightBulbPacket>();
+	private int pollingBudget = 0;
+
+	/**
+	 * Devices not polled by the previous cycle, polled first by the next one
+	 */
+	private final Set<Integer> deferred = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+	/**
+	 * Time to wait for the response to the probe of an unreachable gateway
+	 */
+	private int probeTimeout = 5000;
 	
 	/**
-	 * Collection of motion sensors registered on the gateway
+	 * Bulbs and control outlets registered on the gateway
+	 */
+	private final TradfriDeviceRegistry registry = new TradfriDeviceRegistry();
+
+	/**
+	 * Collection of groups (rooms) registered on the gateway, copied on write as they change only on discovery
+	 */
+	private final List<TradfriGroupPacket> groups = new CopyOnWriteArrayList<TradfriGroupPacket>();
+
+	/**
+	 * Ids of the other devices (remotes, motion sensors...), remembered so that discovery does not fetch them again
+	 */
+	private final Set<Integer> otherDevices = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+	/**
+	 * Observe relations of the devices pushing their state changes (observe mode only)
+	 */
+	private final Map<Integer, CoapObserveRelation> observeRelations = new ConcurrentHashMap<Integer, CoapObserveRelation>();
+
+	/**
+	 * Outgoing command slots of the devices, by resource path
+	 */
+	private final Map<String, TradfriCommandSlot> commandSlots = new ConcurrentHashMap<String, TradfriCommandSlot>();
+
+	private TradfriMetrics metrics = new TradfriMetrics();
+
+	/**
+	 * Delivers the events to the listeners of the gateway and of its packets, created on first use
+	 * unless one is shared with other gateways
+	 */
+	private volatile TradfriEventDispatcher dispatcher = null;
+
+	/**
+	 * Dispatcher created by the gateway itself, shut down by {@link #destroy()}
+	 */
+	private TradfriEventDispatcher ownDispatcher = null;
+
+	private final Object dispatcherLock = new Object();
+
+	/**
+	 * Next due times of the devices (adaptive polling only)
 	 */
-	private final List<TradfriControlOutletPacket> controlOutlets = new ArrayList<TradfriControlOutletPacket>();
+	private final TradfriPollingScheduler scheduler = new TradfriPollingScheduler();
 
 	/**
 	 * COAPS helpers to GET and SET on the IKEA Tradfri gateway using Californium
 	 */
 	private CoapEndpoint coap = null;
+
+	/**
+	 * Endpoint owned by the gateway, stopped but kept between starts for session resumption
+	 */
+	private CoapEndpoint endpoint = null;
 	
 	private final NetworkConfig networkConfig;
+
+	/**
+	 * Clients of the gateway resources, reused across exchanges
+	 */
+	private final TradfriClientCache clients = new TradfriClientCache();
 	
+	/**
+	 * Endpoint shared with other gateways (see {@link TradfriGatewayManager}), not destroyed when the gateway stops
+	 */
+	private CoapEndpoint sharedEndpoint = null;
+
+	/**
+	 * DTLS sessions kept across the connectors of successive starts
+	 */
+	private final TradfriSessionCache sessionCache = new TradfriSessionCache();
+
+	private volatile boolean sessionResumptionEnabled = true;
+
+	/**
+	 * File the devices and groups are saved to, to publish them at once on the next start (none by default)
+	 */
+	private volatile File snapshotFile = null;
+
+	/**
+	 * Connector of the endpoint owned by the gateway, and the address and key it was created for
+	 */
+	private DTLSConnector connector = null;
+
+	private String connectorIp = null;
+
+	private String connectorKey = null;
+
+	private TradfriImpairment connectorImpairment = null;
+
+	/**
+	 * Network conditions simulated on the connection, none by default
+	 */
+	private volatile TradfriImpairment impairment = null;
+
+	/**
+	 * Shared executor running the polling cycles when started with {@link #start(ScheduledExecutorService)}
+	 */
+	private ScheduledExecutorService executor = null;
+
+	private volatile ScheduledFuture<?> nextCycle = null;
+
 	/**
 	 * Gateway properties and constructor
 	 */
 	private String gatewayIp = null;
+	private String discoveredGatewayIp = null;
+	private String discoveredGroupsGatewayIp = null;
 	private String securityKey = null;
 	private int pollingRate = 5000;
+	private boolean observeEnabled = false;
+	private int pollingConcurrency = 4;
+	private boolean groupPollingEnabled = false;
+	private boolean adaptivePollingEnabled = false;
+	private int minPollingInterval = 1000;
+	private int maxPollingInterval = 60000;
+	private int offlinePollingInterval = 300000;
+	private int groupPollingInterval = 5000;
 
 	public TradfriGateway() {
 		this.networkConfig = NetworkConfig.getStandard();
@@ -129,14 +278,290 @@ public class TradfriGateway implements Runnable {
 			this.pollingRate = 60000;
 		else
 			this.pollingRate = pollingRate;
+		updateScheduler();
+	}
+
+	public boolean isAdaptivePollingEnabled() {
+		return adaptivePollingEnabled;
+	}
+
+	/**
+	 * In adaptive polling mode each device is polled on its own schedule instead of every pollingRate:
+	 * a device whose state just changed is polled every minPollingInterval, a stable device backs off
+	 * up to maxPollingInterval and an unreachable device up to offlinePollingInterval. Devices start
+	 * at pollingRate and a command sent to a device brings it back to minPollingInterval.
+	 */
+	public void setAdaptivePollingEnabled(final boolean adaptivePollingEnabled) {
+		this.adaptivePollingEnabled = adaptivePollingEnabled;
+	}
+
+	public int getMinPollingInterval() {
+		return minPollingInterval;
+	}
+
+	public void setMinPollingInterval(final int minPollingInterval) {
+		// between 0.5 and 60 seconds
+		if (minPollingInterval < 500)
+			this.minPollingInterval = 500;
+		else if (minPollingInterval > 60000)
+			this.minPollingInterval = 60000;
+		else
+			this.minPollingInterval = minPollingInterval;
+		if (this.maxPollingInterval < this.minPollingInterval)
+			this.maxPollingInterval = this.minPollingInterval;
+		if (this.offlinePollingInterval < this.maxPollingInterval)
+			this.offlinePollingInterval = this.maxPollingInterval;
+		updateScheduler();
+	}
+
+	public int getMaxPollingInterval() {
+		return maxPollingInterval;
+	}
+
+	public void setMaxPollingInterval(final int maxPollingInterval) {
+		// between the min interval and 1 hour
+		if (maxPollingInterval < minPollingInterval)
+			this.maxPollingInterval = minPollingInterval;
+		else if (maxPollingInterval > 3600000)
+			this.maxPollingInterval = 3600000;
+		else
+			this.maxPollingInterval = maxPollingInterval;
+		if (this.offlinePollingInterval < this.maxPollingInterval)
+			this.offlinePollingInterval = this.maxPollingInterval;
+		updateScheduler();
+	}
+
+	public int getOfflinePollingInterval() {
+		return offlinePollingInterval;
+	}
+
+	public void setOfflinePollingInterval(final int offlinePollingInterval) {
+		// between the max interval and 1 hour
+		if (offlinePollingInterval < maxPollingInterval)
+			this.offlinePollingInterval = maxPollingInterval;
+		else if (offlinePollingInterval > 3600000)
+			this.offlinePollingInterval = 3600000;
+		else
+			this.offlinePollingInterval = offlinePollingInterval;
+		updateScheduler();
+	}
+
+	public int getGroupPollingInterval() {
+		return groupPollingInterval;
+	}
+
+	/**
+	 * Interval at which the groups are polled in adaptive polling mode, when group polling is enabled
+	 * (in fixed polling mode they are polled on every cycle)
+	 */
+	public void setGroupPollingInterval(final int groupPollingInterval) {
+		// between 0.5 seconds and 1 hour
+		if (groupPollingInterval < 500)
+			this.groupPollingInterval = 500;
+		else if (groupPollingInterval > 3600000)
+			this.groupPollingInterval = 3600000;
+		else
+			this.groupPollingInterval = groupPollingInterval;
+		scheduler.setGroupInterval(this.groupPollingInterval);
+	}
+
+	private void updateScheduler() {
+		scheduler.setIntervals(Math.max(pollingRate, minPollingInterval), minPollingInterval, Math.max(pollingRate, maxPollingInterval), offlinePollingInterval);
 	}
 	
+	public int getPollingConcurrency() {
+		return pollingConcurrency;
+	}
+
+	/**
+	 * Number of GET requests kept in flight by a polling cycle, to be sized to what the gateway tolerates
+	 */
+	public void setPollingConcurrency(final int pollingConcurrency) {
+		// between 1 and 64 requests
+		if (pollingConcurrency < 1)
+			this.pollingConcurrency = 1;
+		else if (pollingConcurrency > 64)
+			this.pollingConcurrency = 64;
+		else
+			this.pollingConcurrency = pollingConcurrency;
+	}
+
+	public boolean isGroupPollingEnabled() {
+		return groupPollingEnabled;
+	}
+
+	/**
+	 * When group polling is enabled, the groups are polled first and the members of a group which
+	 * is off are not polled as long as all its bulbs and outlets were off at their last update.
+	 * A member switched on outside of the group (e.g. by a remote) is then only seen once the group
+	 * state changes, which is the price for one GET per room instead of one per member.
+	 */
+	public void setGroupPollingEnabled(final boolean groupPollingEnabled) {
+		this.groupPollingEnabled = groupPollingEnabled;
+	}
+
+	public boolean isObserveEnabled() {
+		return observeEnabled;
+	}
+
+	/**
+	 * In observe mode the devices push their state changes through CoAP Observe relations
+	 * and only the devices whose relation could not be established (or dropped) are polled.
+	 * Must be set before the gateway is started.
+	 */
+	public void setObserveEnabled(final boolean observeEnabled) {
+		this.observeEnabled = observeEnabled;
+	}
+
+	public TradfriMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Counts the activity of the gateway into metrics shared with other gateways
+	 */
+	void setMetrics(final TradfriMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public TradfriEventDispatcher getDispatcher() {
+		final TradfriEventDispatcher current = dispatcher;
+		if (current != null)
+			return current;
+		synchronized (dispatcherLock) {
+			if (dispatcher == null) {
+				ownDispatcher = new TradfriEventDispatcher();
+				dispatcher = ownDispatcher;
+			}
+			return dispatcher;
+		}
+	}
+
+	/**
+	 * Replaces the event dispatcher, e.g. to share one between gateways. Must be set before the gateway is started.
+	 * The dispatcher is not shut down with the gateway.
+	 */
+	public void setDispatcher(final TradfriEventDispatcher dispatcher) {
+		synchronized (dispatcherLock) {
+			shutdownOwnDispatcher();
+			this.dispatcher = dispatcher;
+		}
+	}
+
+	private void shutdownOwnDispatcher() {
+		synchronized (dispatcherLock) {
+			if (ownDispatcher == null)
+				return;
+			ownDispatcher.shutdown();
+			if (dispatcher == ownDispatcher)
+				dispatcher = null;
+			ownDispatcher = null;
+		}
+	}
+
+	/**
+	 * Uses an endpoint shared with other gateways instead of opening its own DTLS connection,
+	 * the PSK of the gateway must then be known to the connector of the endpoint
+	 */
+	public void setSharedEndpoint(final CoapEndpoint sharedEndpoint) {
+		this.sharedEndpoint = sharedEndpoint;
+	}
+
+	/**
+	 * DTLS sessions of the gateway, to tell the resumed ones from the full handshakes
+	 */
+	public TradfriSessionCache getSessionCache() {
+		return sessionCache;
+	}
+
+	public boolean isSessionResumptionEnabled() {
+		return sessionResumptionEnabled;
+	}
+
+	/**
+	 * Keeps the DTLS connector while the gateway is stopped and resumes its session on the next start
+	 * (abbreviated handshake instead of a full PSK handshake), enabled by default. {@link #destroy()}
+	 * releases the connector of a stopped gateway.
+	 */
+	public void setSessionResumptionEnabled(final boolean sessionResumptionEnabled) {
+		this.sessionResumptionEnabled = sessionResumptionEnabled;
+	}
+
+	public File getSnapshotFile() {
+		return snapshotFile;
+	}
+
+	/**
+	 * Saves the devices and groups (ids, types, names, metadata and last state) to the given file
+	 * after each discovery and when the gateway stops. On a start without known devices, those of
+	 * the file are published at once, before the connection is even established, and revalidated in
+	 * the background: the discovery drops the removed devices and fetches the new ones only, and the
+	 * first polling cycle refreshes the state of the others. Null to disable.
+	 */
+	public void setSnapshotFile(final File snapshotFile) {
+		this.snapshotFile = snapshotFile;
+	}
+
+	/**
+	 * Saves the devices and groups to the snapshot file now
+	 */
+	public void saveSnapshot() throws IOException {
+		final File file = snapshotFile;
+		if (file == null)
+			throw new IllegalStateException("No snapshot file set");
+		final List<JSONObject> devices = new ArrayList<JSONObject>();
+		for (TradfriHardwarePacket<?> device : registry.getDevices()) {
+			if (device.getJsonObject() != null)
+				devices.add(device.getJsonObject());
+		}
+		final List<JSONObject> groupsJson = new ArrayList<JSONObject>();
+		for (TradfriGroupPacket group : groups) {
+			if (group.getJsonObject() != null)
+				groupsJson.add(group.getJsonObject());
+		}
+		new TradfriSnapshot(gatewayIp, System.currentTimeMillis(), devices, groupsJson, new ArrayList<Integer>(otherDevices)).write(file);
+		log.debug("Saved " + devices.size() + " devices and " + groupsJson.size() + " groups to " + file);
+	}
+
+	public TradfriImpairment getImpairment() {
+		return impairment;
+	}
+
+	/**
+	 * Impairs the connection with simulated network conditions (loss, delay, jitter...), null to
+	 * remove them. Applies from the next start, not to a shared endpoint.
+	 */
+	public void setImpairment(final TradfriImpairment impairment) {
+		this.impairment = impairment;
+	}
+
+	public TradfriClientCache getClientCache() {
+		return clients;
+	}
+
+	public TradfriDeviceRegistry getDeviceRegistry() {
+		return this.registry;
+	}
+
+	/**
+	 * Immutable snapshot of the bulbs
+	 */
 	public List<TradfriLightBulbPacket> getLightBulbs() {
-		return this.lightBulbs;
+		return registry.getLightBulbs();
 	}
 	
+	/**
+	 * Immutable snapshot of the control outlets
+	 */
 	public List<TradfriControlOutletPacket> getControlOutlets() {
-		return this.controlOutlets;
+		return registry.getControlOutlets();
+	}
+
+	/**
+	 * Read-only view of the groups, which can be iterated while groups are discovered
+	 */
+	public List<TradfriGroupPacket> getGroups() {
+		return Collections.unmodifiableList(this.groups);
 	}
 
 	private final AtomicBoolean running = new AtomicBoolean(false);
@@ -159,215 +584,1274 @@ public class TradfriGateway implements Runnable {
 		listeners.clear();
 	}
 
+	public void addHealthListener(final TradfriHealthListener l) {
+		healthListeners.add(l);
+	}
+
+	public void removeHealthListener(final TradfriHealthListener l) {
+		healthListeners.remove(l);
+	}
+
+	public TradfriHealthMonitor getHealthMonitor() {
+		return health;
+	}
+
+	public int getPollingBudget() {
+		return pollingBudget;
+	}
+
+	/**
+	 * Limits the duration of a polling cycle: at the end of the budget the pending requests are canceled
+	 * and the devices (and groups) not polled yet are deferred to the next cycle. 0 (default) for no limit.
+	 */
+	public void setPollingBudget(final int pollingBudget) {
+		this.pollingBudget = Math.max(0, pollingBudget);
+	}
+
+	public int getProbeTimeout() {
+		return probeTimeout;
+	}
+
+	public void setProbeTimeout(final int probeTimeout) {
+		this.probeTimeout = Math.max(1, probeTimeout);
+	}
+
+	void healthChanged(final TradfriHealthMonitor.State previous, final TradfriHealthMonitor.State state) {
+		log.info("Connection to gateway " + gatewayIp + ": " + previous + " -> " + state);
+		getDispatcher().dispatch(TradfriEventDispatcher.GATEWAY_KEY, healthListeners, new TradfriEvent<TradfriHealthListener>() {
+			@Override
+			public void deliver(final TradfriHealthListener listener) {
+				listener.healthChanged(TradfriGateway.this, previous, state);
+			}
+		});
+	}
+
 	/**
 	 * Gateway public API
 	 */
 	public void start() {
-		if (running.get())
+		if (!running.compareAndSet(false, true))
 			return;
-		running.set(true);
 		new Thread(this).start();
 	}
 
+	/**
+	 * Releases the DTLS connector kept for session resumption and the threads of the event dispatcher
+	 * created by the gateway (events not delivered yet are dropped). Has no effect while the gateway is
+	 * running; it can be started again afterwards.
+	 */
+	public synchronized void destroy() {
+		if (coap != null)
+			return;
+		destroyEndpoint();
+		shutdownOwnDispatcher();
+	}
+
+	private synchronized void destroyEndpoint() {
+		if (coap != null || endpoint == null)
+			return;
+		endpoint.destroy();
+		endpoint = null;
+		connector = null;
+		sessionCache.clear();
+	}
+
 	public void stop() {
 		cancel.set(true);
+		// A cycle not started yet on the shared executor is dropped, a running one closes when done
+		final ScheduledFuture<?> next = nextCycle;
+		if (next != null && next.cancel(false)) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					close();
+				}
+			});
+		}
+	}
+
+	private void fire(final TradfriEvent<TradfriGatewayListener> event) {
+		getDispatcher().dispatch(TradfriEventDispatcher.GATEWAY_KEY, listeners, event);
 	}
 
 	private final int getDevicesCount() {
-		return lightBulbs.size() + controlOutlets.size();
+		return registry.size();
 	}
 	
 	public void run() {
-		// Notify all listeners
-		for (TradfriGatewayListener listener : listeners) {
-			try {
-				listener.gatewayInitializing(this);
-			} catch (Exception ex) {
-				//
-			}
-		}
-		
-		log.debug("Tradfri Gateway is initalizing...");
-		initCoap();
-		log.debug("Discovering devices...");
-		if (dicoverDevices()) {
-			log.debug("Discovered " + getDevicesCount() + " devices.");
-			for (TradfriGatewayListener l : listeners)
-				l.gatewayStarted(this);
+		if (open()) {
 			try {
 				while (!cancel.get()) {
-					Thread.sleep(getPollingRate());
-					log.debug("Polling device status...");
-
-					// Notify all listeners
-					for (TradfriGatewayListener listener : listeners) {
-						try {
-							listener.pollingStarted(this);
-						} catch (Exception ex) {
-							//
-						}
-					}
-
-					// Time measurement
-					long before = System.currentTimeMillis();
-					
-					// Light bulbs
-					for (TradfriLightBulbPacket bulb : lightBulbs) {
-						try {
-							bulb.update();
-						} catch (JSONException ex) {
-							log.error("Cannot update light bulb info: error parsing the response from the gateway", ex);
-						}
-					}
-
-					// Control Outlets
-					for (TradfriControlOutletPacket controlOutlet : controlOutlets) {
-						try {
-							controlOutlet.update();
-						} catch (JSONException e) {
-							log.error("Cannot update control outlet info: error parsing the response from the gateway", e);
-						}
-					}
-					
-					// Time measurement
-					long after = System.currentTimeMillis();
-					
-
-					// Notify all listeners
-					for (TradfriGatewayListener listener : listeners) {
-						try {
-							listener.pollingCompleted(this, getDevicesCount(), (int) (after - before));
-						} catch (Exception ex) {
-							//
-						}
-					}
+					Thread.sleep(nextCycleDelay());
+					pollCycle();
 				}
 			} catch (InterruptedException ex) {
 				log.error("Error", ex);
 			}
 		}
-		running.set(false);
-		cancel.set(false);
-
-		// Notify all listeners
-		for (TradfriGatewayListener listener : listeners) {
-			try {
-				listener.gatewayStoped(this);
-			} catch (Exception ex) {
-				//
-			}
-		}
-		
-		coap.destroy();
-		coap = null;
+		close();
 	}
 
-	protected boolean dicoverDevices() {
-		lightBulbs.clear();
-		controlOutlets.clear();
-		
-		try {
-			final CoapResponse responsedevices = get(TradfriConstants.DEVICES);
-			if (responsedevices == null) {
-				return false;
+	/**
+	 * Runs the gateway on a shared executor instead of its own thread: the start-up and each polling
+	 * cycle are tasks of the executor, so the threads are shared by all the gateways using it
+	 */
+	public void start(final ScheduledExecutorService executor) {
+		if (!running.compareAndSet(false, true))
+			return;
+		this.executor = executor;
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (open())
+					scheduleCycle();
+				else
+					close();
 			}
-			final JSONArray devices = new JSONArray(responsedevices.getResponseText());
+		});
+	}
 
-			// Notify all listeners
-			for (TradfriGatewayListener listener : listeners) {
+	private void scheduleCycle() {
+		nextCycle = executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (cancel.get()) {
+					close();
+					return;
+				}
 				try {
-					listener.lightBulbDiscoveryStarted(this, devices.length());
-					listener.controlOutletDiscoveryStarted(this, devices.length());
-				} catch (Exception ex) {
-					//
+					pollCycle();
+				} catch (InterruptedException ex) {
+					log.error("Error", ex);
+					close();
+					return;
 				}
+				scheduleCycle();
 			}
-			
-			for (int i = 0; i < devices.length(); i++) {
-				final CoapResponse responseDevice = get(TradfriConstants.DEVICES + "/" + devices.getInt(i));
-				if (responseDevice != null) {
-					final JSONObject json = new JSONObject(responseDevice.getResponseText());
-					if (json.has(TradfriConstants.TYPE) && json.getInt(TradfriConstants.TYPE) == TradfriConstants.TYPE_BULB) {
-						final TradfriLightBulbPacket b = new TradfriLightBulbPacket(json.getInt(TradfriConstants.INSTANCE_ID), this, responseDevice);
-						lightBulbs.add(b);
-						
-						// Notify all listeners
-						for (TradfriGatewayListener listener : listeners) {
-							try {
-								listener.lightBulbDiscovered(this, b);
-							} catch (Exception ex) {
-								//
-							}
-						}
-					} else if (json.has(TradfriConstants.TYPE) && json.getInt(TradfriConstants.TYPE) == TradfriConstants.TYPE_REMOTE) {
-						log.debug("REMOTE FOUND: " + json);
-					} else if (json.has(TradfriConstants.TYPE) && json.getInt(TradfriConstants.TYPE) == TradfriConstants.TYPE_CONTROL_OUTLET) {
-						log.debug("CONTROL OUTLET FOUND: " + json);
-						
-						final TradfriControlOutletPacket b = new TradfriControlOutletPacket(json.getInt(TradfriConstants.INSTANCE_ID), this, responseDevice);
-						controlOutlets.add(b);
-						
-						// Notify all listeners
-						for (TradfriGatewayListener listener : listeners) {
-							try {
-								listener.controlOutletDiscovered(this, b);
-							} catch (Exception ex) {
-								//
-							}
-						}
-					} else if (json.has(TradfriConstants.TYPE) && json.getInt(TradfriConstants.TYPE) == TradfriConstants.TYPE_MOTION) {
-						log.debug("MOTION FOUND: " + json);
-					} else {
-						log.debug("UnKNOWN TYPE: " + json);
+		}, nextCycleDelay(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Initializes the connection and discovers the devices and groups
+	 */
+	private boolean open() {
+		// Notify all listeners
+		fire(new TradfriEvent<TradfriGatewayListener>() {
+			@Override
+			public void deliver(final TradfriGatewayListener listener) {
+				listener.gatewayInitializing(TradfriGateway.this);
+			}
+		});
+		
+		log.debug("Tradfri Gateway is initalizing...");
+		initCoap();
+		if (snapshotFile != null && registry.size() == 0 && groups.isEmpty())
+			restoreSnapshot();
+		log.debug("Discovering devices...");
+		// The first request opens the DTLS connection: only this exchange is timed, not the discovery of each device
+		final InetSocketAddress peer = new InetSocketAddress(gatewayIp, TradfriPskStore.COAPS_PORT);
+		final SessionId previous = sessionCache.getSessionId(peer);
+		final long before = System.currentTimeMillis();
+		final CoapResponse responsedevices = get(TradfriConstants.DEVICES);
+		if (responsedevices == null)
+			return false;
+		final SessionId current = sessionCache.getSessionId(peer);
+		if (current != null && sharedEndpoint == null) {
+			final boolean resumed = current.equals(previous);
+			metrics.handshake(System.currentTimeMillis() - before, resumed);
+			log.debug("DTLS session " + (resumed ? "resumed" : "established") + " in " + metrics.getLastHandshakeMillis() + "ms");
+		}
+		if (!dicoverDevices(responsedevices))
+			return false;
+		log.debug("Discovered " + getDevicesCount() + " devices.");
+		if (discoverGroups())
+			log.debug("Discovered " + groups.size() + " groups.");
+		persistSnapshot();
+		// Notify all listeners
+		fire(new TradfriEvent<TradfriGatewayListener>() {
+			@Override
+			public void deliver(final TradfriGatewayListener listener) {
+				listener.gatewayStarted(TradfriGateway.this);
+			}
+		});
+		if (observeEnabled) {
+			log.debug("Registering observe relations...");
+			try {
+				observeDevices();
+			} catch (InterruptedException ex) {
+				log.error("Error", ex);
+				return false;
+			}
+			log.debug("Observing " + observeRelations.size() + " of " + getDevicesCount() + " devices.");
+		}
+		return true;
+	}
+
+	/**
+	 * Publishes the devices and groups of the snapshot file, if it was taken from the same gateway
+	 */
+	private void restoreSnapshot() {
+		final File file = snapshotFile;
+		if (!file.isFile())
+			return;
+		final long before = System.currentTimeMillis();
+		final TradfriSnapshot snapshot;
+		try {
+			snapshot = TradfriSnapshot.read(file);
+		} catch (IOException ex) {
+			log.warn("Snapshot " + file + " ignored", ex);
+			return;
+		}
+		if (!gatewayIp.equals(snapshot.getGatewayIp())) {
+			log.info("Snapshot " + file + " ignored, taken from gateway " + snapshot.getGatewayIp());
+			return;
+		}
+		try {
+			final int total = snapshot.getDevices().size();
+			// Notify all listeners
+			fire(new TradfriEvent<TradfriGatewayListener>() {
+				@Override
+				public void deliver(final TradfriGatewayListener listener) {
+					listener.lightBulbDiscoveryStarted(TradfriGateway.this, total);
+					listener.controlOutletDiscoveryStarted(TradfriGateway.this, total);
+				}
+			});
+			for (JSONObject json : snapshot.getDevices()) {
+				// Not counted as updated: the poll age shows the state is stale until the first poll
+				final TradfriHardwarePacket<?> device = register(json.getInt(TradfriConstants.INSTANCE_ID), json);
+				if (device != null)
+					scheduler.stale(device.getPath());
+			}
+			otherDevices.addAll(snapshot.getOtherDevices());
+			// Kept by the discovery, which only diffs the devices of the gateway they come from
+			discoveredGatewayIp = gatewayIp;
+			// Notify all listeners
+			fire(new TradfriEvent<TradfriGatewayListener>() {
+				@Override
+				public void deliver(final TradfriGatewayListener listener) {
+					listener.lightBulbDiscoveryCompleted(TradfriGateway.this);
+					listener.controlOutletDiscoveryCompleted(TradfriGateway.this);
+				}
+			});
+
+			final int totalGroups = snapshot.getGroups().size();
+			// Notify all listeners
+			fire(new TradfriEvent<TradfriGatewayListener>() {
+				@Override
+				public void deliver(final TradfriGatewayListener listener) {
+					listener.groupDiscoveryStarted(TradfriGateway.this, totalGroups);
+				}
+			});
+			for (JSONObject json : snapshot.getGroups()) {
+				final TradfriGroupPacket g = new TradfriGroupPacket(json.getInt(TradfriConstants.INSTANCE_ID), this);
+				g.update(json);
+				groups.add(g);
+
+				// Notify all listeners
+				fire(new TradfriEvent<TradfriGatewayListener>() {
+					@Override
+					public void deliver(final TradfriGatewayListener listener) {
+						listener.groupDiscovered(TradfriGateway.this, g);
 					}
+				});
+			}
+			discoveredGroupsGatewayIp = gatewayIp;
+			// Notify all listeners
+			fire(new TradfriEvent<TradfriGatewayListener>() {
+				@Override
+				public void deliver(final TradfriGatewayListener listener) {
+					listener.groupDiscoveryCompleted(TradfriGateway.this);
+				}
+			});
+		} catch (JSONException ex) {
+			metrics.parseError();
+			log.warn("Snapshot " + file + " partly restored", ex);
+		}
+		log.debug("Restored " + getDevicesCount() + " devices and " + groups.size() + " groups from " + file + " in " + (System.currentTimeMillis() - before) + "ms");
+	}
+
+	/**
+	 * Saves the snapshot if a file is set and the devices of the gateway are known
+	 */
+	private void persistSnapshot() {
+		if (snapshotFile == null || !gatewayIp.equals(discoveredGatewayIp))
+			return;
+		try {
+			saveSnapshot();
+		} catch (IOException ex) {
+			log.warn("Cannot save snapshot " + snapshotFile, ex);
+		}
+	}
+
+	private long nextCycleDelay() {
+		final long now = System.currentTimeMillis();
+		long delay = getPollingRate();
+		if (adaptivePollingEnabled) {
+			delay = scheduler.delay(getPolledDevices(), now);
+			if (groupPollingEnabled)
+				delay = Math.min(delay, scheduler.delay(groups, now));
+		}
+		if (health.getState() == TradfriHealthMonitor.State.OPEN)
+			return Math.min(delay, health.getProbeDelay(now));
+		return delay;
+	}
+
+	/**
+	 * Polls the devices due (all the devices without a live observe relation in fixed polling mode)
+	 */
+	private void pollCycle() throws InterruptedException {
+		// Unreachable gateway: nothing is polled until a probe gets through
+		if (health.getState() != TradfriHealthMonitor.State.CLOSED) {
+			if (health.isProbeDue(System.currentTimeMillis()))
+				reconnect();
+			if (health.getState() != TradfriHealthMonitor.State.CLOSED)
+				return;
+		}
+
+		// Devices without a live observe relation, and due in adaptive polling mode
+		final long now = System.currentTimeMillis();
+		final List<TradfriHardwarePacket<?>> devices = new ArrayList<TradfriHardwarePacket<?>>();
+		for (TradfriHardwarePacket<?> device : getPolledDevices()) {
+			if (!adaptivePollingEnabled || scheduler.isDue(device, now))
+				devices.add(device);
+		}
+		// Groups due, on their own interval in adaptive polling mode
+		final List<TradfriGroupPacket> dueGroups = new ArrayList<TradfriGroupPacket>();
+		if (groupPollingEnabled) {
+			for (TradfriGroupPacket group : groups) {
+				if (!adaptivePollingEnabled || scheduler.isDue(group, now))
+					dueGroups.add(group);
+			}
+		}
+		if (adaptivePollingEnabled && devices.isEmpty() && dueGroups.isEmpty())
+			return;
+		// Devices deferred by the previous cycle go first
+		if (!deferred.isEmpty()) {
+			final List<TradfriHardwarePacket<?>> first = new ArrayList<TradfriHardwarePacket<?>>();
+			final Iterator<TradfriHardwarePacket<?>> it = devices.iterator();
+			while (it.hasNext()) {
+				final TradfriHardwarePacket<?> device = it.next();
+				if (deferred.contains(device.getId())) {
+					first.add(device);
+					it.remove();
+				}
+			}
+			devices.addAll(0, first);
+			deferred.clear();
+		}
+
+		log.debug("Polling device status...");
+
+		// Notify all listeners
+		fire(new TradfriEvent<TradfriGatewayListener>() {
+			@Override
+			public void deliver(final TradfriGatewayListener listener) {
+				listener.pollingStarted(TradfriGateway.this);
+			}
+		});
+
+		// Time measurement
+		final long before = System.currentTimeMillis();
+		final long deadline = (pollingBudget > 0) ? before + pollingBudget : NO_DEADLINE;
+		
+		// Groups which allow skipping their members
+		int groupsPolled = 0;
+		int groupsSkipped = 0;
+		if (groupPollingEnabled) {
+			final Set<Integer> uniformlyOff = new HashSet<Integer>();
+			groupsSkipped = pollGroups(dueGroups, deadline, uniformlyOff);
+			groupsPolled = dueGroups.size() - groupsSkipped;
+			// The groups not due yet are trusted with their last state
+			for (TradfriGroupPacket group : groups) {
+				if (!dueGroups.contains(group) && group.getTimestamp() != 0L && isUniformlyOff(group))
+					uniformlyOff.addAll(group.getMembers());
+			}
+			final Iterator<TradfriHardwarePacket<?>> it = devices.iterator();
+			while (it.hasNext()) {
+				if (uniformlyOff.contains(it.next().getId()))
+					it.remove();
+			}
+		}
+		final int devicesSkipped = pollDevices(devices, deadline);
+		
+		// Time measurement
+		final long after = System.currentTimeMillis();
+		final int polled = devices.size() - devicesSkipped + groupsPolled;
+		final int skipped = devicesSkipped + groupsSkipped;
+		if (skipped > 0)
+			log.debug("Polling budget of " + pollingBudget + "ms exhausted, " + skipped + " devices and groups deferred");
+
+		// Notify all listeners
+		fire(new TradfriEvent<TradfriGatewayListener>() {
+			@Override
+			public void deliver(final TradfriGatewayListener listener) {
+				listener.pollingCompleted(TradfriGateway.this, polled, skipped, (int) (after - before));
+			}
+		});
+	}
+
+	/**
+	 * Rebuilds the connection to an unreachable gateway and probes it with a single GET. The observe
+	 * relations are dropped with the old connection, the next cycles register them again.
+	 */
+	private void reconnect() throws InterruptedException {
+		health.probing();
+		log.info("Reconnecting to gateway " + gatewayIp + "...");
+		cancelObserveRelations();
+		if (coap != sharedEndpoint) {
+			releaseEndpoint();
+			initCoap();
+		}
+		CoapResponse response = null;
+		try {
+			response = send(TradfriConstants.DEVICES, newGet(), probeTimeout, TimeUnit.MILLISECONDS).get();
+		} catch (ExecutionException ex) {
+			// Still unreachable
+		}
+		if (response != null) {
+			health.probeSucceeded();
+		} else {
+			health.probeFailed();
+			log.warn("Gateway " + gatewayIp + " still unreachable, next attempt in " + health.getProbeDelay(System.currentTimeMillis()) + "ms");
+		}
+	}
+
+	/**
+	 * Releases the connection, only once per start
+	 */
+	private void close() {
+		if (!running.compareAndSet(true, false))
+			return;
+		cancel.set(false);
+		nextCycle = null;
+
+		// Notify all listeners
+		fire(new TradfriEvent<TradfriGatewayListener>() {
+			@Override
+			public void deliver(final TradfriGatewayListener listener) {
+				listener.gatewayStoped(TradfriGateway.this);
+			}
+		});
+		
+		persistSnapshot();
+		cancelObserveRelations();
+		clients.clear();
+		scheduler.clear();
+		deferred.clear();
+		health.reset();
+		releaseEndpoint();
+	}
+
+	/**
+	 * Stops the endpoint owned by the gateway, kept for session resumption unless disabled
+	 */
+	private void releaseEndpoint() {
+		final CoapEndpoint closed = coap;
+		coap = null;
+		if (closed != null && closed != sharedEndpoint) {
+			if (sessionResumptionEnabled)
+				closed.stop();
+			else
+				destroyEndpoint();
+		}
+	}
+
+	/**
+	 * Devices refreshed by polling, i.e. without a live observe relation
+	 */
+	private List<TradfriHardwarePacket<?>> getPolledDevices() {
+		final List<TradfriHardwarePacket<?>> devices = new ArrayList<TradfriHardwarePacket<?>>();
+		for (TradfriLightBulbPacket bulb : getLightBulbs()) {
+			if (!isObserved(bulb))
+				devices.add(bulb);
+		}
+		for (TradfriControlOutletPacket controlOutlet : getControlOutlets()) {
+			if (!isObserved(controlOutlet))
+				devices.add(controlOutlet);
+		}
+		return devices;
+	}
+
+	protected void observeDevices() throws InterruptedException {
+		final List<TradfriHardwarePacket<?>> devices = new ArrayList<TradfriHardwarePacket<?>>();
+		devices.addAll(getLightBulbs());
+		devices.addAll(getControlOutlets());
+		pollDevices(devices);
+	}
+
+	/**
+	 * Refreshes the devices while keeping at most pollingConcurrency requests in flight. Each packet
+	 * is updated as soon as its response arrives and the method returns once all requests are done.
+	 * In observe mode the request also registers the observe relation of the device.
+	 */
+	protected void pollDevices(final List<? extends TradfriHardwarePacket<?>> devices) throws InterruptedException {
+		pollDevices(devices, NO_DEADLINE);
+	}
+
+	/**
+	 * Polls the devices in order until the deadline, the requests in flight at the deadline are
+	 * canceled; the devices not polled, whether not sent or canceled, are deferred to the next cycle
+	 *
+	 * @return the number of devices deferred
+	 */
+	protected int pollDevices(final List<? extends TradfriHardwarePacket<?>> devices, final long deadline) throws InterruptedException {
+		final TradfriRequestWindow window = new TradfriRequestWindow(pollingConcurrency);
+		final AtomicInteger canceled = new AtomicInteger();
+		for (int i = 0; i < devices.size(); i++) {
+			final TradfriHardwarePacket<?> device = devices.get(i);
+			if (!acquire(window, deadline)) {
+				for (int j = i; j < devices.size(); j++) {
+					deferred.add(devices.get(j).getId());
+				}
+				window.await();
+				return devices.size() - i + canceled.get();
+			}
+			// Requests still in flight at the deadline are canceled
+			final long remaining = (deadline == NO_DEADLINE) ? 0 : Math.max(1, deadline - System.currentTimeMillis());
+			final TradfriFuture<CoapResponse> future;
+			if (observeEnabled) {
+				// Observed devices are updated by their relation
+				future = observe(device);
+				if (remaining > 0)
+					TradfriDeadlines.expire(future, remaining, TimeUnit.MILLISECONDS, null);
+			} else {
+				future = getAsync(device.getPath(), remaining, TimeUnit.MILLISECONDS);
+				future.addListener(new TradfriFutureListener<CoapResponse>() {
+					@Override
+					public void completed(final CoapResponse response) {
+						update(device, response);
+					}
+
+					@Override
+					public void failed(final Throwable cause) {
+						//
+					}
+				});
+			}
+			schedule(device, future);
+			if (deadline != NO_DEADLINE)
+				deferIfCanceled(device, future, canceled, deferred);
+			metrics.devicePolled();
+			window.track(future);
+		}
+		window.await();
+		return canceled.get();
+	}
+
+	/**
+	 * Counts a poll canceled at the deadline of the cycle like a resource not polled: it is stale for
+	 * the scheduler and, if a set is given, deferred to the next cycle
+	 */
+	private void deferIfCanceled(final TradfriResourcePacket<?> resource, final TradfriFuture<CoapResponse> future, final AtomicInteger canceled, final Set<Integer> deferTo) {
+		future.addListener(new TradfriFutureListener<CoapResponse>() {
+			@Override
+			public void completed(final CoapResponse response) {
+				//
+			}
+
+			@Override
+			public void failed(final Throwable cause) {
+				if (!(cause instanceof TimeoutException))
+					return;
+				canceled.incrementAndGet();
+				if (deferTo != null)
+					deferTo.add(resource.getId());
+				if (adaptivePollingEnabled)
+					scheduler.stale(resource.getPath());
+			}
+		});
+	}
+
+	/**
+	 * Feeds the outcome of a poll into the schedule of the device (adaptive polling only)
+	 */
+	private void schedule(final TradfriHardwarePacket<?> device, final TradfriFuture<CoapResponse> future) {
+		if (!adaptivePollingEnabled)
+			return;
+		final long lastChange = device.getTimestamp();
+		future.addListener(new TradfriFutureListener<CoapResponse>() {
+			@Override
+			public void completed(final CoapResponse response) {
+				scheduler.polled(device, device.getTimestamp() != lastChange, System.currentTimeMillis());
+			}
+
+			@Override
+			public void failed(final Throwable cause) {
+				// Not sent at all, or cut by the polling budget: the device stays due for the next cycle
+				if (!(cause instanceof TradfriCircuitOpenException) && !(cause instanceof TimeoutException))
+					scheduler.failed(device, System.currentTimeMillis());
+			}
+		});
+	}
+
+	private void update(final TradfriHardwarePacket<?> device, final CoapResponse response) {
+		try {
+			device.update(response);
+			metrics.deviceUpdated(gatewayIp, device.getId());
+		} catch (JSONException ex) {
+			metrics.parseError();
+			log.error("Cannot update " + device.getPacketType() + " " + device.getId() + ": error parsing the response from the gateway", ex);
+		}
+	}
+
+	/**
+	 * Registers an observe relation on the device resource. Every notification is fed into the
+	 * update path of the packet, so listeners are notified exactly as if the device had been polled.
+	 * The returned future is completed by the first response, which also carries the current state.
+	 * Devices for which the gateway refuses the relation are polled again by the next cycle.
+	 */
+	protected TradfriFuture<CoapResponse> observe(final TradfriHardwarePacket<?> device) {
+		if (!health.allowRequest())
+			return TradfriFuture.failed(circuitOpen("OBSERVE", device.getPath()));
+		final TradfriFuture<CoapResponse> registered = new TradfriFuture<CoapResponse>();
+		final CoapObserveRelation relation = clients.get(device.getPath()).observe(new CoapHandler() {
+			@Override
+			public void onLoad(final CoapResponse response) {
+				update(device, response);
+				registered.complete(response);
+			}
+
+			@Override
+			public void onError() {
+				// The relation is canceled by Californium and picked up again by the next polling cycle
+				log.warn("Observe relation on device " + device.getId() + " dropped, falling back to polling");
+				registered.fail(new IOException("Observe relation on device " + device.getId() + " dropped"));
+			}
+		});
+		observeRelations.put(device.getId(), relation);
+		return registered;
+	}
+
+	/**
+	 * Waits for a slot of the window until the deadline
+	 */
+	private static boolean acquire(final TradfriRequestWindow window, final long deadline) throws InterruptedException {
+		if (deadline == NO_DEADLINE) {
+			window.acquire();
+			return true;
+		}
+		final long remaining = deadline - System.currentTimeMillis();
+		return remaining > 0 && window.acquire(remaining);
+	}
+
+	private boolean isObserved(final TradfriHardwarePacket<?> device) {
+		if (!observeEnabled)
+			return false;
+		final CoapObserveRelation relation = observeRelations.get(device.getId());
+		if (relation != null && !relation.isCanceled())
+			return true;
+		observeRelations.remove(device.getId());
+		return false;
+	}
+
+	protected void cancelObserveRelations() {
+		for (CoapObserveRelation relation : observeRelations.values()) {
+			relation.reactiveCancel();
+		}
+		observeRelations.clear();
+	}
+
+	/**
+	 * Diffs the device list of the gateway against the known devices: removed devices are dropped,
+	 * only added devices are fetched (concurrently, within the polling window) and the packets of
+	 * the devices still present are kept together with their listeners.
+	 */
+	protected boolean dicoverDevices() {
+		final CoapResponse responsedevices = get(TradfriConstants.DEVICES);
+		if (responsedevices == null) {
+			return false;
+		}
+		return dicoverDevices(responsedevices);
+	}
+
+	/**
+	 * Discovers the devices listed in a response to {@link TradfriConstants#DEVICES}
+	 */
+	private boolean dicoverDevices(final CoapResponse responsedevices) {
+		try {
+			final JSONArray devices = new JSONArray(responsedevices.getResponseText());
+			final Set<Integer> ids = new LinkedHashSet<Integer>();
+			for (int i = 0; i < devices.length(); i++) {
+				ids.add(devices.getInt(i));
+			}
+
+			// The devices known from another gateway are all dropped
+			removeDevices(gatewayIp.equals(discoveredGatewayIp) ? ids : Collections.<Integer>emptySet());
+
+			final List<Integer> added = new ArrayList<Integer>();
+			for (Integer id : ids) {
+				if (!otherDevices.contains(id) && !registry.contains(id))
+					added.add(id);
+			}
+
+			// Notify all listeners
+			fire(new TradfriEvent<TradfriGatewayListener>() {
+				@Override
+				public void deliver(final TradfriGatewayListener listener) {
+					listener.lightBulbDiscoveryStarted(TradfriGateway.this, added.size());
+					listener.controlOutletDiscoveryStarted(TradfriGateway.this, added.size());
+				}
+			});
+
+			final Map<Integer, CoapResponse> responses = fetchAll(TradfriConstants.DEVICES, added);
+			for (Integer id : added) {
+				final CoapResponse responseDevice = responses.get(id);
+				if (responseDevice != null) {
+					final JSONObject json = TradfriPacket.parse(responseDevice);
+					if (register(id, json) != null)
+						metrics.deviceUpdated(gatewayIp, id);
 				}
 
 			}
+			discoveredGatewayIp = gatewayIp;
 			
 			// Notify all listeners
-			for (TradfriGatewayListener listener : listeners) {
-				try {
-					listener.lightBulbDiscoveryCompleted(this);
-					listener.controlOutletDiscoveryCompleted(this);
-				} catch (Exception ex) {
-					//
+			fire(new TradfriEvent<TradfriGatewayListener>() {
+				@Override
+				public void deliver(final TradfriGatewayListener listener) {
+					listener.lightBulbDiscoveryCompleted(TradfriGateway.this);
+					listener.controlOutletDiscoveryCompleted(TradfriGateway.this);
+				}
+			});
+		} catch (JSONException e) {
+			metrics.parseError();
+			log.error("Error parsing response from the Tradfri gateway", e);
+			return false;
+
+		} catch (InterruptedException e) {
+			log.error("Device discovery interrupted", e);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Registers a discovered (or restored) device from its JSON: bulbs and control outlets are added to
+	 * the registry with their state and announced to the listeners, the ids of the other devices are
+	 * only remembered.
+	 * Returns the packet of the device, null if it is not handled.
+	 */
+	private TradfriHardwarePacket<?> register(final int id, final JSONObject json) throws JSONException {
+		if (json.has(TradfriConstants.TYPE) && json.getInt(TradfriConstants.TYPE) == TradfriConstants.TYPE_BULB) {
+			final TradfriLightBulbPacket b = new TradfriLightBulbPacket(json.getInt(TradfriConstants.INSTANCE_ID), this);
+			b.update(json);
+			registry.add(b);
+			
+			// Notify all listeners
+			fire(new TradfriEvent<TradfriGatewayListener>() {
+				@Override
+				public void deliver(final TradfriGatewayListener listener) {
+					listener.lightBulbDiscovered(TradfriGateway.this, b);
+				}
+			});
+			return b;
+		} else if (json.has(TradfriConstants.TYPE) && json.getInt(TradfriConstants.TYPE) == TradfriConstants.TYPE_REMOTE) {
+			log.debug("REMOTE FOUND: " + json);
+			otherDevices.add(id);
+		} else if (json.has(TradfriConstants.TYPE) && json.getInt(TradfriConstants.TYPE) == TradfriConstants.TYPE_CONTROL_OUTLET) {
+			log.debug("CONTROL OUTLET FOUND: " + json);
+			
+			final TradfriControlOutletPacket b = new TradfriControlOutletPacket(json.getInt(TradfriConstants.INSTANCE_ID), this);
+			b.update(json);
+			registry.add(b);
+			
+			// Notify all listeners
+			fire(new TradfriEvent<TradfriGatewayListener>() {
+				@Override
+				public void deliver(final TradfriGatewayListener listener) {
+					listener.controlOutletDiscovered(TradfriGateway.this, b);
 				}
+			});
+			return b;
+		} else if (json.has(TradfriConstants.TYPE) && json.getInt(TradfriConstants.TYPE) == TradfriConstants.TYPE_MOTION) {
+			log.debug("MOTION FOUND: " + json);
+			otherDevices.add(id);
+		} else {
+			log.debug("UnKNOWN TYPE: " + json);
+			otherDevices.add(id);
+		}
+		return null;
+	}
+
+	/**
+	 * Fetches the resources (devices or groups) while keeping at most pollingConcurrency requests in flight
+	 */
+	private Map<Integer, CoapResponse> fetchAll(final String resource, final List<Integer> ids) throws InterruptedException {
+		final Map<Integer, CoapResponse> responses = new ConcurrentHashMap<Integer, CoapResponse>();
+		final TradfriRequestWindow window = new TradfriRequestWindow(pollingConcurrency);
+		for (final Integer id : ids) {
+			window.acquire();
+			final TradfriFuture<CoapResponse> future = getAsync(resource + "/" + id);
+			future.addListener(new TradfriFutureListener<CoapResponse>() {
+				@Override
+				public void completed(final CoapResponse response) {
+					responses.put(id, response);
+				}
+
+				@Override
+				public void failed(final Throwable cause) {
+					// Fetched again by the next discovery
+				}
+			});
+			window.track(future);
+		}
+		window.await();
+		return responses;
+	}
+
+	/**
+	 * Drops the known devices which are not in the device list of the gateway anymore
+	 */
+	private void removeDevices(final Set<Integer> ids) {
+		otherDevices.retainAll(ids);
+
+		for (final TradfriHardwarePacket<?> device : registry.getDevices()) {
+			if (ids.contains(device.getId()))
+				continue;
+			registry.remove(device.getId());
+			forgetDevice(device);
+
+			// Notify all listeners
+			fire(new TradfriEvent<TradfriGatewayListener>() {
+				@Override
+				public void deliver(final TradfriGatewayListener listener) {
+					if (device instanceof TradfriLightBulbPacket)
+						listener.lightBulbRemoved(TradfriGateway.this, (TradfriLightBulbPacket) device);
+					else if (device instanceof TradfriControlOutletPacket)
+						listener.controlOutletRemoved(TradfriGateway.this, (TradfriControlOutletPacket) device);
+				}
+			});
+		}
+	}
+
+	private void forgetDevice(final TradfriHardwarePacket<?> device) {
+		final CoapObserveRelation relation = observeRelations.remove(device.getId());
+		if (relation != null)
+			relation.reactiveCancel();
+		clients.invalidate(device.getPath());
+		commandSlots.remove(device.getPath());
+		scheduler.forget(device.getPath());
+		metrics.deviceForgotten(gatewayIp, device.getId());
+	}
+
+	/**
+	 * Discovers the groups, diffing them against the known groups like {@link #dicoverDevices()}
+	 */
+	protected boolean discoverGroups() {
+		try {
+			final CoapResponse responseGroups = get(TradfriConstants.GROUPS);
+			if (responseGroups == null) {
+				return false;
 			}
+			final JSONArray array = new JSONArray(responseGroups.getResponseText());
+			final Set<Integer> ids = new LinkedHashSet<Integer>();
+			for (int i = 0; i < array.length(); i++) {
+				ids.add(array.getInt(i));
+			}
+
+			// Removed groups, or all of them for another gateway
+			final boolean sameGateway = gatewayIp.equals(discoveredGroupsGatewayIp);
+			final Iterator<TradfriGroupPacket> it = groups.iterator();
+			while (it.hasNext()) {
+				final TradfriGroupPacket g = it.next();
+				if (sameGateway && ids.contains(g.getId()))
+					continue;
+				it.remove();
+				clients.invalidate(g.getPath());
+				scheduler.forget(g.getPath());
+				commandSlots.remove(g.getPath());
+
+				// Notify all listeners
+				fire(new TradfriEvent<TradfriGatewayListener>() {
+					@Override
+					public void deliver(final TradfriGatewayListener listener) {
+						listener.groupRemoved(TradfriGateway.this, g);
+					}
+				});
+			}
+
+			final List<Integer> added = new ArrayList<Integer>();
+			for (Integer id : ids) {
+				if (getGroup(id) == null)
+					added.add(id);
+			}
+
+			// Notify all listeners
+			fire(new TradfriEvent<TradfriGatewayListener>() {
+				@Override
+				public void deliver(final TradfriGatewayListener listener) {
+					listener.groupDiscoveryStarted(TradfriGateway.this, added.size());
+				}
+			});
+
+			final Map<Integer, CoapResponse> responses = fetchAll(TradfriConstants.GROUPS, added);
+			for (Integer id : added) {
+				final CoapResponse responseGroup = responses.get(id);
+				if (responseGroup != null) {
+					final TradfriGroupPacket g = new TradfriGroupPacket(id, this, responseGroup);
+					groups.add(g);
+
+					// Notify all listeners
+					fire(new TradfriEvent<TradfriGatewayListener>() {
+						@Override
+						public void deliver(final TradfriGatewayListener listener) {
+							listener.groupDiscovered(TradfriGateway.this, g);
+						}
+					});
+				}
+			}
+			discoveredGroupsGatewayIp = gatewayIp;
+
+			// Notify all listeners
+			fire(new TradfriEvent<TradfriGatewayListener>() {
+				@Override
+				public void deliver(final TradfriGatewayListener listener) {
+					listener.groupDiscoveryCompleted(TradfriGateway.this);
+				}
+			});
 		} catch (JSONException e) {
+			metrics.parseError();
 			log.error("Error parsing response from the Tradfri gateway", e);
 			return false;
 
+		} catch (InterruptedException e) {
+			log.error("Group discovery interrupted", e);
+			return false;
 		}
 		return true;
 	}
 
+	/**
+	 * Polls the groups within the polling window and returns the ids of the members which do not
+	 * need to be polled: the members of the groups which are uniformly off.
+	 */
+	protected Set<Integer> pollGroups() throws InterruptedException {
+		final Set<Integer> uniformlyOff = new HashSet<Integer>();
+		pollGroups(groups, NO_DEADLINE, uniformlyOff);
+		return uniformlyOff;
+	}
+
+	/**
+	 * Polls the groups in order until the deadline, collecting the members of the groups uniformly off
+	 *
+	 * @return the number of groups not polled before the deadline, not sent or canceled
+	 */
+	protected int pollGroups(final List<TradfriGroupPacket> groups, final long deadline, final Set<Integer> uniformlyOff) throws InterruptedException {
+		final Set<TradfriGroupPacket> updated = Collections.newSetFromMap(new ConcurrentHashMap<TradfriGroupPacket, Boolean>());
+		final TradfriRequestWindow window = new TradfriRequestWindow(pollingConcurrency);
+		final AtomicInteger canceled = new AtomicInteger();
+		int skipped = 0;
+		for (final TradfriGroupPacket group : groups) {
+			if (!acquire(window, deadline)) {
+				skipped++;
+				continue;
+			}
+			final long remaining = (deadline == NO_DEADLINE) ? 0 : Math.max(1, deadline - System.currentTimeMillis());
+			final TradfriFuture<CoapResponse> future = getAsync(group.getPath(), remaining, TimeUnit.MILLISECONDS);
+			future.addListener(new TradfriFutureListener<CoapResponse>() {
+				@Override
+				public void completed(final CoapResponse response) {
+					if (adaptivePollingEnabled)
+						scheduler.polled(group, System.currentTimeMillis());
+					try {
+						group.update(response);
+						updated.add(group);
+					} catch (JSONException ex) {
+						metrics.parseError();
+						log.error("Cannot update group " + group.getId() + ": error parsing the response from the gateway", ex);
+					}
+				}
+
+				@Override
+				public void failed(final Throwable cause) {
+					// Not sent at all, or cut by the polling budget: the group stays due for the next cycle
+					if (adaptivePollingEnabled && !(cause instanceof TradfriCircuitOpenException) && !(cause instanceof TimeoutException))
+						scheduler.polled(group, System.currentTimeMillis());
+				}
+			});
+			if (deadline != NO_DEADLINE)
+				deferIfCanceled(group, future, canceled, null);
+			window.track(future);
+		}
+		window.await();
+
+		for (TradfriGroupPacket group : updated) {
+			if (isUniformlyOff(group))
+				uniformlyOff.addAll(group.getMembers());
+		}
+		return skipped + canceled.get();
+	}
+
+	/**
+	 * A group is uniformly off when it is off and all its bulbs and outlets were off at their last update
+	 */
+	private boolean isUniformlyOff(final TradfriGroupPacket group) {
+		if (group.isOn())
+			return false;
+		for (Integer id : group.getMembers()) {
+			final TradfriLightBulbPacket bulb = getLightBulb(id);
+			if (bulb != null && bulb.isOn())
+				return false;
+			final TradfriControlOutletPacket controlOutlet = getControlOutlet(id);
+			if (controlOutlet != null && controlOutlet.isOn())
+				return false;
+		}
+		return true;
+	}
+
+	public TradfriGroupPacket getGroup(final int id) {
+		for (TradfriGroupPacket g : groups) {
+			if (g.getId() == id)
+				return g;
+		}
+		return null;
+	}
+
+	public TradfriLightBulbPacket getLightBulb(final int id) {
+		return registry.get(id, TradfriLightBulbPacket.class);
+	}
+
+	public TradfriControlOutletPacket getControlOutlet(final int id) {
+		return registry.get(id, TradfriControlOutletPacket.class);
+	}
+
 	protected void initCoap() {
-		final DtlsConnectorConfig.Builder builder = new DtlsConnectorConfig.Builder();
-		builder.setPskStore(new StaticPskStore("", securityKey.getBytes()));
-		coap = new CoapEndpoint(new DTLSConnector(builder.build()), networkConfig);
+		if (sharedEndpoint != null) {
+			coap = sharedEndpoint;
+			clients.bind(coap, "coaps://" + gatewayIp + "/");
+			return;
+		}
+		if (connector != null && gatewayIp.equals(connectorIp) && securityKey.equals(connectorKey) && impairment == connectorImpairment) {
+			// Connector kept from the previous start: its socket changed, the session must be resumed
+			connector.forceResumeSessionFor(new InetSocketAddress(gatewayIp, TradfriPskStore.COAPS_PORT));
+		} else {
+			destroyEndpoint();
+			final DtlsConnectorConfig.Builder builder = new DtlsConnectorConfig.Builder();
+			builder.setPskStore(new StaticPskStore("", securityKey.getBytes()));
+			connector = new DTLSConnector(builder.build(), sessionCache);
+			connectorIp = gatewayIp;
+			connectorKey = securityKey;
+			connectorImpairment = impairment;
+			endpoint = new CoapEndpoint((impairment == null) ? connector : new TradfriImpairedConnector(connector, impairment), networkConfig);
+		}
+		coap = endpoint;
+		clients.bind(coap, "coaps://" + gatewayIp + "/");
 	}
 
 	public CoapResponse get(final String path) {
 		//log.debug("GET: " + "coaps://" + gatewayIp + "/" + path);
-		final CoapClient client = new CoapClient("coaps://" + gatewayIp + "/" + path);
-		client.setEndpoint(coap);
-		final CoapResponse response = client.get(1);
+		if (!health.allowRequest()) {
+			log.debug("GET: coaps://" + gatewayIp + "/" + path + " not sent, gateway unreachable");
+			return null;
+		}
+		final long start = System.nanoTime();
+		final CoapResponse response = clients.get(path).get(1);
 		if (response == null) {
 			log.error("Connection to Gateway timed out, please check ip address or increase the ACK_TIMEOUT in the Californium.properties file");
+			metrics.timeout();
+			health.failure();
+		} else {
+			metrics.exchanged("GET", path, System.nanoTime() - start);
+			health.success();
 		}
 		return response;
 	}
 
 	public void set(final String path, final String payload) {
-		log.debug("SET: " + "coaps://" + gatewayIp + "/" + path + " = " + payload);
-		final CoapClient client = new CoapClient("coaps://" + gatewayIp + "/" + path);
-		client.setEndpoint(coap);
-		final CoapResponse response = client.put(payload, MediaTypeRegistry.TEXT_PLAIN);
-		if (response != null && response.isSuccess()) {
-			// System.out.println("Yay");
+		set(path, payload.getBytes(UTF_8));
+	}
+
+	public void set(final String path, final byte[] payload) {
+		if (log.isDebugEnabled())
+			log.debug("SET: " + "coaps://" + gatewayIp + "/" + path + " = " + new String(payload, UTF_8));
+		if (!health.allowRequest()) {
+			log.debug("SET: coaps://" + gatewayIp + "/" + path + " not sent, gateway unreachable");
+			return;
+		}
+		final long start = System.nanoTime();
+		final CoapResponse response = clients.get(path).put(payload, MediaTypeRegistry.TEXT_PLAIN);
+		if (response == null) {
+			metrics.timeout();
+			health.failure();
 		} else {
+			metrics.exchanged("PUT", path, System.nanoTime() - start);
+			health.success();
+		}
+		if (response == null || !response.isSuccess())
 			log.error("Sending payload to " + "coaps://" + gatewayIp + "/" + path + " failed!");
+	}
+
+	/**
+	 * GET with a deadline, null if the gateway did not respond in time
+	 */
+	public CoapResponse get(final String path, final long timeout, final TimeUnit unit) {
+		try {
+			return getAsync(path, timeout, unit).get();
+		} catch (ExecutionException ex) {
+			return null;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * Non-blocking GET. The future fails if the gateway does not respond.
+	 */
+	public TradfriFuture<CoapResponse> getAsync(final String path) {
+		return getAsync(path, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Non-blocking GET with a deadline: the future fails with a {@link java.util.concurrent.TimeoutException}
+	 * and the request is canceled if the gateway did not respond in time. A timeout of 0 waits for the
+	 * Californium retransmissions to give up.
+	 */
+	public TradfriFuture<CoapResponse> getAsync(final String path, final long timeout, final TimeUnit unit) {
+		if (!health.allowRequest())
+			return TradfriFuture.failed(circuitOpen("GET", path));
+		final TradfriFuture<CoapResponse> future = send(path, newGet(), timeout, unit);
+		future.addListener(new TradfriFutureListener<CoapResponse>() {
+			@Override
+			public void completed(final CoapResponse response) {
+				health.success();
+			}
+
+			@Override
+			public void failed(final Throwable cause) {
+				// A deadline shorter than the Californium timeouts does not tell the gateway is down
+				if (cause instanceof TimeoutException) {
+					log.debug("GET: coaps://" + gatewayIp + "/" + path + " canceled: " + cause.getMessage());
+					return;
+				}
+				log.error("Connection to Gateway timed out, please check ip address or increase the ACK_TIMEOUT in the Californium.properties file");
+				health.failure();
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Non-blocking PUT. The future is completed with the response of the gateway (which may be an
+	 * error response) and fails if the gateway does not respond.
+	 */
+	public TradfriFuture<CoapResponse> setAsync(final String path, final String payload) {
+		return setAsync(path, payload.getBytes(UTF_8));
+	}
+
+	/**
+	 * Non-blocking PUT of an encoded payload, see {@link TradfriCommand#encode()}
+	 */
+	public TradfriFuture<CoapResponse> setAsync(final String path, final byte[] payload) {
+		return setAsync(path, payload, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Non-blocking PUT with a deadline, see {@link #getAsync(String, long, TimeUnit)}
+	 */
+	public TradfriFuture<CoapResponse> setAsync(final String path, final byte[] payload, final long timeout, final TimeUnit unit) {
+		if (log.isDebugEnabled())
+			log.debug("SET: " + "coaps://" + gatewayIp + "/" + path + " = " + new String(payload, UTF_8));
+		if (!health.allowRequest())
+			return TradfriFuture.failed(circuitOpen("PUT", path));
+		final Request request = Request.newPut();
+		request.setPayload(payload);
+		request.getOptions().setContentFormat(MediaTypeRegistry.TEXT_PLAIN);
+		final TradfriFuture<CoapResponse> future = send(path, request, timeout, unit);
+		future.addListener(new TradfriFutureListener<CoapResponse>() {
+			@Override
+			public void completed(final CoapResponse response) {
+				health.success();
+				if (!response.isSuccess()) {
+					log.error("Sending payload to " + "coaps://" + gatewayIp + "/" + path + " failed!");
+				}
+			}
+
+			@Override
+			public void failed(final Throwable cause) {
+				log.error("Sending payload to " + "coaps://" + gatewayIp + "/" + path + " failed!");
+				if (!(cause instanceof TimeoutException))
+					health.failure();
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Sends a request regardless of the health of the connection
+	 */
+	private TradfriFuture<CoapResponse> send(final String path, final Request request, final long timeout, final TimeUnit unit) {
+		final TradfriFuture<CoapResponse> future = new TradfriFuture<CoapResponse>();
+		final String method = request.getCode().toString();
+		final long start = System.nanoTime();
+		request.addMessageObserver(new MessageObserverAdapter() {
+			@Override
+			public void onRetransmission() {
+				metrics.retransmission();
+			}
+
+			@Override
+			public void onTimeout() {
+				metrics.timeout();
+			}
+		});
+		clients.get(path).advanced(new CoapHandler() {
+			@Override
+			public void onLoad(final CoapResponse response) {
+				metrics.exchanged(method, path, System.nanoTime() - start);
+				future.complete(response);
+			}
+
+			@Override
+			public void onError() {
+				future.fail(new IOException(request.getCode() + " coaps://" + gatewayIp + "/" + path + " failed"));
+			}
+		}, request);
+		if (timeout > 0) {
+			TradfriDeadlines.expire(future, timeout, unit, request);
+			future.addListener(new TradfriFutureListener<CoapResponse>() {
+				@Override
+				public void completed(final CoapResponse response) {
+					//
+				}
+
+				@Override
+				public void failed(final Throwable cause) {
+					if (cause instanceof TimeoutException)
+						metrics.timeout();
+				}
+			});
+		}
+		return future;
+	}
+
+	private static Request newGet() {
+		final Request request = Request.newGet();
+		request.getOptions().setAccept(1);
+		return request;
+	}
+
+	private TradfriCircuitOpenException circuitOpen(final String method, final String path) {
+		return new TradfriCircuitOpenException(method + " coaps://" + gatewayIp + "/" + path + " not sent, gateway unreachable");
+	}
+
+	/**
+	 * Sends a command to a device through the command slot of the device: while a PUT to the
+	 * device is in flight, newer commands are merged into a single pending command, so that only
+	 * the latest state of each attribute is sent next, in one PUT.
+	 */
+	public TradfriFuture<CoapResponse> sendCommand(final String path, final TradfriCommand command) {
+		scheduler.touched(path, System.currentTimeMillis());
+		TradfriCommandSlot slot = commandSlots.get(path);
+		if (slot == null) {
+			synchronized (commandSlots) {
+				slot = commandSlots.get(path);
+				if (slot == null) {
+					slot = new TradfriCommandSlot(this, path);
+					commandSlots.put(path, slot);
+				}
+			}
 		}
-		client.shutdown();
+		return slot.submit(command);
 	}
 }
@@ -0,0 +1,274 @@
+package org.thingml.tradfri;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.scandium.DTLSConnector;
+import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.thingml.tradfri.listener.TradfriGatewayListener;
+import org.thingml.tradfri.packet.TradfriHardwarePacket;
+
+/**
+ * Several gateways (e.g. one per building) in one process, sharing their threads and connections.
+ *
+ * Instead of a polling thread, an event dispatcher and a DTLS connector each, the gateways of a
+ * manager share one scheduled pool running their start-up and polling cycles, one event dispatcher,
+ * one set of metrics, and one DTLS connector whose PSK store knows the key of every gateway. The
+ * devices are addressed in a single namespace as "gatewayId/deviceId".
+ *
+ * A polling cycle waits for its responses on a pool thread, the pool size bounds how many gateways
+ * are polled at the same time.
+ */
+public class TradfriGatewayManager {
+
+	/**
+	 * Logger to be used for all console outputs, errors and exceptions
+	 */
+	private static final Logger log = LoggerFactory.getLogger(TradfriGatewayManager.class);
+
+	public static final int DEFAULT_POOL_SIZE = 2;
+
+	public static final int DEFAULT_POLLING_RATE = 5000;
+
+	private static final char SEPARATOR = '/';
+
+	private final Map<String, TradfriGateway> gateways = Collections.synchronizedMap(new LinkedHashMap<String, TradfriGateway>());
+
+	private final List<TradfriGatewayListener> listeners = new CopyOnWriteArrayList<TradfriGatewayListener>();
+
+	private final ScheduledExecutorService executor;
+
+	private final TradfriEventDispatcher dispatcher = new TradfriEventDispatcher();
+
+	private final TradfriMetrics metrics = new TradfriMetrics();
+
+	private final TradfriPskStore pskStore = new TradfriPskStore();
+
+	/**
+	 * DTLS sessions of all the gateways
+	 */
+	private final TradfriSessionCache sessionCache = new TradfriSessionCache();
+
+	private final NetworkConfig networkConfig;
+
+	private CoapEndpoint coap = null;
+
+	private boolean started = false;
+
+	public TradfriGatewayManager() {
+		this(DEFAULT_POOL_SIZE, NetworkConfig.getStandard());
+	}
+
+	public TradfriGatewayManager(final int poolSize) {
+		this(poolSize, NetworkConfig.getStandard());
+	}
+
+	public TradfriGatewayManager(final int poolSize, final NetworkConfig networkConfig) {
+		this.networkConfig = networkConfig;
+		this.executor = Executors.newScheduledThreadPool(Math.max(1, poolSize), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, "tradfri-gateways-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public TradfriGateway addGateway(final String gatewayId, final String gatewayIp, final String securityKey) {
+		return addGateway(gatewayId, gatewayIp, securityKey, DEFAULT_POLLING_RATE);
+	}
+
+	/**
+	 * Adds a gateway, started right away if the manager is running. The returned gateway can be
+	 * configured (observe, adaptive polling...) before the manager is started.
+	 */
+	public synchronized TradfriGateway addGateway(final String gatewayId, final String gatewayIp, final String securityKey, final int pollingRate) {
+		if (gatewayId.indexOf(SEPARATOR) >= 0)
+			throw new IllegalArgumentException("Gateway id must not contain '" + SEPARATOR + "': " + gatewayId);
+		if (gateways.containsKey(gatewayId))
+			throw new IllegalArgumentException("Gateway already added: " + gatewayId);
+		final TradfriGateway gateway = new TradfriGateway(gatewayIp, securityKey, pollingRate, networkConfig);
+		gateway.setDispatcher(dispatcher);
+		gateway.setMetrics(metrics);
+		for (TradfriGatewayListener l : listeners) {
+			gateway.addListener(l);
+		}
+		pskStore.setKey(gatewayIp, securityKey);
+		gateways.put(gatewayId, gateway);
+		if (started) {
+			gateway.setSharedEndpoint(coap);
+			gateway.start(executor);
+		}
+		return gateway;
+	}
+
+	/**
+	 * Stops and removes a gateway, its devices leave the namespace
+	 */
+	public synchronized TradfriGateway removeGateway(final String gatewayId) {
+		final TradfriGateway gateway = gateways.remove(gatewayId);
+		if (gateway != null) {
+			gateway.stop();
+			pskStore.removeKey(gateway.getGatewayIp());
+			metrics.gatewayForgotten(gateway.getGatewayIp());
+		}
+		return gateway;
+	}
+
+	public TradfriGateway getGateway(final String gatewayId) {
+		return gateways.get(gatewayId);
+	}
+
+	public Set<String> getGatewayIds() {
+		synchronized (gateways) {
+			return Collections.unmodifiableSet(new LinkedHashSet<String>(gateways.keySet()));
+		}
+	}
+
+	public TradfriHardwarePacket<?> getDevice(final String gatewayId, final int deviceId) {
+		final TradfriGateway gateway = gateways.get(gatewayId);
+		return (gateway == null) ? null : gateway.getDeviceRegistry().get(deviceId);
+	}
+
+	/**
+	 * Device from its qualified id "gatewayId/deviceId", null if unknown
+	 */
+	public TradfriHardwarePacket<?> getDevice(final String qualifiedId) {
+		final int i = qualifiedId.lastIndexOf(SEPARATOR);
+		if (i < 0)
+			return null;
+		try {
+			return getDevice(qualifiedId.substring(0, i), Integer.parseInt(qualifiedId.substring(i + 1)));
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Qualified id "gatewayId/deviceId" of a device, null if it belongs to none of the gateways
+	 */
+	public String getQualifiedId(final TradfriHardwarePacket<?> device) {
+		synchronized (gateways) {
+			for (Map.Entry<String, TradfriGateway> entry : gateways.entrySet()) {
+				if (entry.getValue().getDeviceRegistry().get(device.getId()) == device)
+					return entry.getKey() + SEPARATOR + device.getId();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Devices of all the gateways by qualified id
+	 */
+	public Map<String, TradfriHardwarePacket<?>> getDevices() {
+		final Map<String, TradfriHardwarePacket<?>> devices = new LinkedHashMap<String, TradfriHardwarePacket<?>>();
+		synchronized (gateways) {
+			for (Map.Entry<String, TradfriGateway> entry : gateways.entrySet()) {
+				for (TradfriHardwarePacket<?> device : entry.getValue().getDeviceRegistry().getDevices()) {
+					devices.put(entry.getKey() + SEPARATOR + device.getId(), device);
+				}
+			}
+		}
+		return devices;
+	}
+
+	/**
+	 * Listener of all the gateways, current and added later
+	 */
+	public void addListener(final TradfriGatewayListener l) {
+		listeners.add(l);
+		for (TradfriGateway gateway : snapshot()) {
+			gateway.addListener(l);
+		}
+	}
+
+	public void removeListener(final TradfriGatewayListener l) {
+		listeners.remove(l);
+		for (TradfriGateway gateway : snapshot()) {
+			gateway.removeListener(l);
+		}
+	}
+
+	public TradfriEventDispatcher getDispatcher() {
+		return dispatcher;
+	}
+
+	public TradfriSessionCache getSessionCache() {
+		return sessionCache;
+	}
+
+	/**
+	 * Counters summed over all the gateways
+	 */
+	public TradfriMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Opens the shared DTLS endpoint and starts all the gateways
+	 */
+	public synchronized void start() throws IOException {
+		if (started)
+			return;
+		final DtlsConnectorConfig.Builder builder = new DtlsConnectorConfig.Builder();
+		builder.setPskStore(pskStore);
+		coap = new CoapEndpoint(new DTLSConnector(builder.build(), sessionCache), networkConfig);
+		coap.start();
+		started = true;
+		for (TradfriGateway gateway : snapshot()) {
+			gateway.setSharedEndpoint(coap);
+			gateway.start(executor);
+		}
+	}
+
+	/**
+	 * Stops all the gateways, waits up to the timeout for their cycles to end, then releases the
+	 * shared endpoint, threads and dispatcher. The manager can't be started again.
+	 */
+	public synchronized void shutdown(final long timeout, final TimeUnit unit) throws InterruptedException {
+		final List<TradfriGateway> all = snapshot();
+		for (TradfriGateway gateway : all) {
+			gateway.stop();
+		}
+		final long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+		for (TradfriGateway gateway : all) {
+			while (gateway.isRunning() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			if (gateway.isRunning())
+				log.warn("Gateway " + gateway.getGatewayIp() + " did not stop in time");
+		}
+		executor.shutdownNow();
+		if (coap != null)
+			coap.destroy();
+		coap = null;
+		started = false;
+		dispatcher.shutdown();
+	}
+
+	private List<TradfriGateway> snapshot() {
+		synchronized (gateways) {
+			return new ArrayList<TradfriGateway>(gateways.values());
+		}
+	}
+
+}
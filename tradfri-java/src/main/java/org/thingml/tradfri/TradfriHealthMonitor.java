@@ -0,0 +1,186 @@
+package org.thingml.tradfri;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker on the connection to a gateway.
+ *
+ * Consecutive failed requests (no response within the Californium timeouts) beyond the threshold
+ * open the circuit: further requests fail at once instead of each waiting out the timeouts, so the
+ * rest of a polling cycle completes quickly. While open, the polling cycle probes the gateway with a
+ * single request after a backoff, doubling up to the maximum backoff while the gateway is still
+ * down; a successful probe closes the circuit again.
+ */
+public class TradfriHealthMonitor {
+
+	public enum State {
+		/**
+		 * Connected, requests go through
+		 */
+		CLOSED,
+		/**
+		 * Gateway unreachable, requests fail fast until the next probe
+		 */
+		OPEN,
+		/**
+		 * Reconnecting, only the probe goes through
+		 */
+		HALF_OPEN
+	}
+
+	public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+
+	public static final int DEFAULT_MIN_BACKOFF = 1000;
+
+	public static final int DEFAULT_MAX_BACKOFF = 60000;
+
+	private final TradfriGateway gateway;
+
+	private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+	private final AtomicLong opened = new AtomicLong();
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	private volatile State state = State.CLOSED;
+
+	private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+	private int minBackoff = DEFAULT_MIN_BACKOFF;
+	private int maxBackoff = DEFAULT_MAX_BACKOFF;
+
+	private long backoff = DEFAULT_MIN_BACKOFF;
+	private long nextProbe = 0;
+
+	TradfriHealthMonitor(final TradfriGateway gateway) {
+		this.gateway = gateway;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public int getConsecutiveFailures() {
+		return consecutiveFailures.get();
+	}
+
+	/**
+	 * Times the circuit was opened
+	 */
+	public long getOpened() {
+		return opened.get();
+	}
+
+	/**
+	 * Requests failed fast while the circuit was open
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	public synchronized int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	public synchronized void setFailureThreshold(final int failureThreshold) {
+		this.failureThreshold = Math.max(1, failureThreshold);
+	}
+
+	public synchronized int getMinBackoff() {
+		return minBackoff;
+	}
+
+	public synchronized int getMaxBackoff() {
+		return maxBackoff;
+	}
+
+	/**
+	 * Delays between the probes of an unreachable gateway, in milliseconds
+	 */
+	public synchronized void setBackoff(final int minBackoff, final int maxBackoff) {
+		this.minBackoff = Math.max(1, minBackoff);
+		this.maxBackoff = Math.max(this.minBackoff, maxBackoff);
+		this.backoff = this.minBackoff;
+	}
+
+	/**
+	 * Whether a request may be sent, counts the rejected ones
+	 */
+	boolean allowRequest() {
+		if (state == State.CLOSED)
+			return true;
+		rejected.incrementAndGet();
+		return false;
+	}
+
+	void success() {
+		consecutiveFailures.set(0);
+	}
+
+	void failure() {
+		if (consecutiveFailures.incrementAndGet() < getFailureThreshold())
+			return;
+		synchronized (this) {
+			if (state != State.CLOSED)
+				return;
+			backoff = minBackoff;
+			nextProbe = System.currentTimeMillis() + backoff;
+			opened.incrementAndGet();
+		}
+		transition(State.CLOSED, State.OPEN);
+	}
+
+	synchronized boolean isProbeDue(final long now) {
+		return state == State.OPEN && now >= nextProbe;
+	}
+
+	/**
+	 * Time to wait until the next probe, 0 if the circuit is closed
+	 */
+	synchronized long getProbeDelay(final long now) {
+		return (state == State.OPEN) ? Math.max(0, nextProbe - now) : 0;
+	}
+
+	void probing() {
+		synchronized (this) {
+			if (state != State.OPEN)
+				return;
+		}
+		transition(State.OPEN, State.HALF_OPEN);
+	}
+
+	void probeSucceeded() {
+		synchronized (this) {
+			backoff = minBackoff;
+			consecutiveFailures.set(0);
+		}
+		transition(State.HALF_OPEN, State.CLOSED);
+	}
+
+	void probeFailed() {
+		synchronized (this) {
+			backoff = Math.min(backoff * 2, maxBackoff);
+			nextProbe = System.currentTimeMillis() + backoff;
+		}
+		transition(State.HALF_OPEN, State.OPEN);
+	}
+
+	/**
+	 * Back to closed without notification, when the gateway is stopped
+	 */
+	synchronized void reset() {
+		state = State.CLOSED;
+		consecutiveFailures.set(0);
+		backoff = minBackoff;
+	}
+
+	private void transition(final State from, final State to) {
+		synchronized (this) {
+			if (state != from)
+				return;
+			state = to;
+		}
+		gateway.healthChanged(from, to);
+	}
+
+}
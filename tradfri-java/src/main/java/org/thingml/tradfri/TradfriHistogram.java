@@ -0,0 +1,99 @@
+package org.thingml.tradfri;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency distribution with fixed buckets, from 100us to 30s.
+ *
+ * Recording is lock-free (one increment per bucket, count and sum), the buckets are cumulative
+ * when read like Prometheus histograms. Reads of a histogram being recorded are not atomic, a
+ * sample may show in the count before its bucket.
+ */
+public class TradfriHistogram {
+
+	/**
+	 * Upper bounds of the buckets in microseconds, the last bucket is unbounded
+	 */
+	private static final long[] BOUNDS = { 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000, 30000000 };
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sumNanos = new AtomicLong();
+
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public void record(final long nanos) {
+		final long micros = nanos / 1000;
+		int i = 0;
+		while (i < BOUNDS.length && micros > BOUNDS[i])
+			i++;
+		buckets.incrementAndGet(i);
+		count.incrementAndGet();
+		sumNanos.addAndGet(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+			max = maxNanos.get();
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSumNanos() {
+		return sumNanos.get();
+	}
+
+	public long getMaxMicros() {
+		return maxNanos.get() / 1000;
+	}
+
+	public long getAverageMicros() {
+		final long n = count.get();
+		return (n == 0) ? 0 : sumNanos.get() / n / 1000;
+	}
+
+	/**
+	 * Upper bounds of the buckets in microseconds, without the unbounded last bucket
+	 */
+	public static long[] getBounds() {
+		return BOUNDS.clone();
+	}
+
+	/**
+	 * Samples in each bucket and below (the last one is the unbounded bucket)
+	 */
+	public long[] getCumulativeCounts() {
+		final long[] counts = new long[buckets.length()];
+		long total = 0;
+		for (int i = 0; i < counts.length; i++) {
+			total += buckets.get(i);
+			counts[i] = total;
+		}
+		return counts;
+	}
+
+	/**
+	 * Upper bound of the bucket holding the given quantile (0.5, 0.99...) in microseconds,
+	 * the max when the quantile falls in the unbounded bucket
+	 */
+	public long getQuantileMicros(final double quantile) {
+		final long[] counts = getCumulativeCounts();
+		final long total = counts[counts.length - 1];
+		if (total == 0)
+			return 0;
+		final long rank = (long) Math.ceil(quantile * total);
+		for (int i = 0; i < BOUNDS.length; i++) {
+			if (counts[i] >= rank)
+				return BOUNDS[i];
+		}
+		return getMaxMicros();
+	}
+
+	public String toString() {
+		return "count: " + getCount() + "\tavg: " + getAverageMicros() + "us\tp50: " + getQuantileMicros(0.5) + "us\tp99: " + getQuantileMicros(0.99) + "us\tmax: " + getMaxMicros() + "us";
+	}
+
+}
@@ -0,0 +1,141 @@
+package org.thingml.tradfri;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.elements.Connector;
+import org.eclipse.californium.elements.EndpointContextMatcher;
+import org.eclipse.californium.elements.RawData;
+import org.eclipse.californium.elements.RawDataChannel;
+
+/**
+ * Connector applying a {@link TradfriImpairment} to the datagrams exchanged by another connector.
+ *
+ * Wrapping the DTLS connector of a gateway (see {@link TradfriGateway#setImpairment(TradfriImpairment)})
+ * impairs the CoAP messages, so the retransmissions, deadlines and circuit breaker can be tested
+ * under lossy conditions without a radio. The DTLS handshake itself is not impaired. Delayed
+ * datagrams are delivered by a single daemon thread; a lost outgoing datagram is reported as sent,
+ * as the network would.
+ */
+public class TradfriImpairedConnector implements Connector {
+
+	private final Connector connector;
+
+	private final TradfriImpairment impairment;
+
+	private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread thread = new Thread(r, "tradfri-impairment");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private volatile RawDataChannel receiver;
+
+	public TradfriImpairedConnector(final Connector connector, final TradfriImpairment impairment) {
+		this.connector = connector;
+		this.impairment = impairment;
+		this.connector.setRawDataReceiver(new RawDataChannel() {
+			@Override
+			public void receiveData(final RawData raw) {
+				impair(true, new Runnable() {
+					@Override
+					public void run() {
+						final RawDataChannel channel = receiver;
+						if (channel != null)
+							channel.receiveData(raw);
+					}
+				});
+			}
+		});
+	}
+
+	public Connector getConnector() {
+		return connector;
+	}
+
+	public TradfriImpairment getImpairment() {
+		return impairment;
+	}
+
+	@Override
+	public void start() throws IOException {
+		connector.start();
+	}
+
+	@Override
+	public void stop() {
+		connector.stop();
+	}
+
+	@Override
+	public void destroy() {
+		scheduler.shutdownNow();
+		connector.destroy();
+	}
+
+	@Override
+	public void send(final RawData raw) {
+		final boolean delivered = impair(false, new Runnable() {
+			@Override
+			public void run() {
+				connector.send(raw);
+			}
+		});
+		if (!delivered)
+			raw.onSent();
+	}
+
+	@Override
+	public void setRawDataReceiver(final RawDataChannel receiver) {
+		this.receiver = receiver;
+	}
+
+	@Override
+	public void setEndpointContextMatcher(final EndpointContextMatcher matcher) {
+		connector.setEndpointContextMatcher(matcher);
+	}
+
+	@Override
+	public InetSocketAddress getAddress() {
+		return connector.getAddress();
+	}
+
+	@Override
+	public String getProtocol() {
+		return connector.getProtocol();
+	}
+
+	/**
+	 * Delivers the datagram according to the impairment, false if it is lost
+	 */
+	private boolean impair(final boolean incoming, final Runnable delivery) {
+		final long datagram = impairment.nextDatagram(incoming);
+		final long delay = impairment.delay(datagram);
+		if (delay < 0)
+			return false;
+		deliver(delivery, delay);
+		if (impairment.duplicate(datagram))
+			deliver(delivery, delay + 1);
+		return true;
+	}
+
+	private void deliver(final Runnable delivery, final long delay) {
+		if (delay == 0) {
+			delivery.run();
+			return;
+		}
+		try {
+			scheduler.schedule(delivery, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException ex) {
+			// Destroyed, the datagrams in flight are lost
+		}
+	}
+
+}
@@ -0,0 +1,198 @@
+package org.thingml.tradfri;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Network conditions applied by a {@link TradfriImpairedConnector}, e.g. to reproduce a congested
+ * Wi-Fi between the host and the gateway, and the counters of what was done to the datagrams.
+ *
+ * Each datagram, in both directions, is lost with the loss probability, otherwise delivered after
+ * the delay plus or minus a random jitter. A delivered datagram is duplicated with the duplication
+ * probability, and held back with the reordering probability so that the next datagrams overtake it.
+ * The random decisions are not drawn from a shared generator but derived from the seed and the
+ * position of the datagram in its direction, so the n-th datagram sent and the n-th datagram received
+ * get the same fate on each run, whatever the interleaving of the sending and receiving threads.
+ */
+public class TradfriImpairment {
+
+	public static final long DEFAULT_SEED = 0x7472616466726cL;
+
+	private static final int LOSS = 0;
+
+	private static final int JITTER = 1;
+
+	private static final int REORDERING = 2;
+
+	private static final int DUPLICATION = 3;
+
+	private final long seed;
+
+	private volatile double loss = 0;
+
+	private volatile int delay = 0;
+
+	private volatile int jitter = 0;
+
+	private volatile double duplication = 0;
+
+	private volatile double reordering = 0;
+
+	private final AtomicLong datagrams = new AtomicLong();
+
+	private final AtomicLong lost = new AtomicLong();
+
+	private final AtomicLong duplicated = new AtomicLong();
+
+	private final AtomicLong reordered = new AtomicLong();
+
+	/**
+	 * Next sequence number of each direction
+	 */
+	private final AtomicLong sent = new AtomicLong();
+
+	private final AtomicLong received = new AtomicLong();
+
+	public TradfriImpairment() {
+		this(DEFAULT_SEED);
+	}
+
+	public TradfriImpairment(final long seed) {
+		this.seed = seed;
+	}
+
+	public double getLoss() {
+		return loss;
+	}
+
+	/**
+	 * Probability of losing a datagram, between 0 and 1
+	 */
+	public TradfriImpairment setLoss(final double loss) {
+		this.loss = probability(loss);
+		return this;
+	}
+
+	public int getDelay() {
+		return delay;
+	}
+
+	/**
+	 * One-way delay of the datagrams, in milliseconds
+	 */
+	public TradfriImpairment setDelay(final int delay) {
+		this.delay = Math.max(0, delay);
+		return this;
+	}
+
+	public int getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * Maximum random deviation from the delay, in milliseconds
+	 */
+	public TradfriImpairment setJitter(final int jitter) {
+		this.jitter = Math.max(0, jitter);
+		return this;
+	}
+
+	public double getDuplication() {
+		return duplication;
+	}
+
+	/**
+	 * Probability of delivering a datagram twice, between 0 and 1
+	 */
+	public TradfriImpairment setDuplication(final double duplication) {
+		this.duplication = probability(duplication);
+		return this;
+	}
+
+	public double getReordering() {
+		return reordering;
+	}
+
+	/**
+	 * Probability of holding a datagram back behind the next ones, between 0 and 1
+	 */
+	public TradfriImpairment setReordering(final double reordering) {
+		this.reordering = probability(reordering);
+		return this;
+	}
+
+	/**
+	 * Datagrams which went through the impaired connectors, in both directions
+	 */
+	public long getDatagrams() {
+		return datagrams.get();
+	}
+
+	public long getLost() {
+		return lost.get();
+	}
+
+	public long getDuplicated() {
+		return duplicated.get();
+	}
+
+	public long getReordered() {
+		return reordered.get();
+	}
+
+	/**
+	 * Numbers the next datagram of a direction, the number its decisions are derived from
+	 */
+	long nextDatagram(final boolean incoming) {
+		datagrams.incrementAndGet();
+		final long sequence = (incoming ? received : sent).getAndIncrement();
+		return (sequence << 1) | (incoming ? 1 : 0);
+	}
+
+	/**
+	 * Time after which the datagram is delivered, or -1 if it is lost
+	 */
+	long delay(final long datagram) {
+		if (draw(datagram, LOSS) < loss) {
+			lost.incrementAndGet();
+			return -1;
+		}
+		long next = delay + Math.round((draw(datagram, JITTER) * 2 - 1) * jitter);
+		if (draw(datagram, REORDERING) < reordering) {
+			reordered.incrementAndGet();
+			// Long enough for the datagrams sent right after to arrive first
+			next += Math.max(10, delay + jitter);
+		}
+		return Math.max(0, next);
+	}
+
+	/**
+	 * Whether the datagram just delivered is delivered once more
+	 */
+	boolean duplicate(final long datagram) {
+		if (draw(datagram, DUPLICATION) >= duplication)
+			return false;
+		duplicated.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Uniform value in [0, 1) for a decision on a datagram (SplitMix64 finalizer of seed, datagram and decision)
+	 */
+	private double draw(final long datagram, final int decision) {
+		long z = seed + (datagram * 4 + decision + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		return (z >>> 11) * 0x1.0p-53;
+	}
+
+	private static double probability(final double p) {
+		return Math.max(0, Math.min(1, p));
+	}
+
+	public String toString() {
+		return "[IMPAIRMENT]\tloss: " + loss + "\tdelay: " + delay + "ms\tjitter: " + jitter + "ms\tduplication: " + duplication + "\treordering: " + reordering
+				+ "\tdatagrams: " + getDatagrams() + "\tlost: " + getLost() + "\tduplicated: " + getDuplicated() + "\treordered: " + getReordered();
+	}
+
+}
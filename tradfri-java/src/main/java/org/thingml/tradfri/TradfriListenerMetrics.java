@@ -0,0 +1,68 @@
+package org.thingml.tradfri;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deliveries of the events to the listeners of one class
+ */
+public class TradfriListenerMetrics {
+
+	private final String listener;
+
+	private final AtomicLong calls = new AtomicLong();
+
+	private final AtomicLong failures = new AtomicLong();
+
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	TradfriListenerMetrics(final String listener) {
+		this.listener = listener;
+	}
+
+	public String getListener() {
+		return listener;
+	}
+
+	public long getCalls() {
+		return calls.get();
+	}
+
+	/**
+	 * Callbacks which threw an exception
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * Average time spent in the callbacks, in microseconds
+	 */
+	public long getAverageMicros() {
+		final long n = calls.get();
+		return (n == 0) ? 0 : totalNanos.get() / n / 1000;
+	}
+
+	/**
+	 * Longest time spent in a callback, in microseconds
+	 */
+	public long getMaxMicros() {
+		return maxNanos.get() / 1000;
+	}
+
+	void delivered(final long nanos, final boolean failed) {
+		calls.incrementAndGet();
+		if (failed)
+			failures.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+			max = maxNanos.get();
+	}
+
+	public String toString() {
+		return "[LISTENER " + listener + "]\tcalls: " + getCalls() + "\tfailures: " + getFailures() + "\tavg: " + getAverageMicros() + "us\tmax: " + getMaxMicros() + "us";
+	}
+
+}
@@ -0,0 +1,244 @@
+package org.thingml.tradfri;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms describing the activity of a gateway.
+ *
+ * The getters read the live values and can be called from any thread, see
+ * {@link TradfriPrometheusExporter} for the text export.
+ */
+public class TradfriMetrics {
+
+	/**
+	 * Commands sent to the devices (one PUT each)
+	 */
+	private final AtomicLong commandsSent = new AtomicLong();
+
+	/**
+	 * Commands merged into a pending command of the same device instead of being sent in their own PUT
+	 */
+	private final AtomicLong commandsCoalesced = new AtomicLong();
+
+	/**
+	 * Requests issued by the polling cycles (GET, or observe registration in observe mode)
+	 */
+	private final AtomicLong devicesPolled = new AtomicLong();
+
+	/**
+	 * DTLS handshakes to the gateway, full (PSK exchange) or abbreviated (session resumed)
+	 */
+	private final AtomicLong fullHandshakes = new AtomicLong();
+
+	private final AtomicLong resumedHandshakes = new AtomicLong();
+
+	private final AtomicLong fullHandshakeMillis = new AtomicLong();
+
+	private final AtomicLong resumedHandshakeMillis = new AtomicLong();
+
+	private volatile long lastHandshakeMillis = 0;
+
+	/**
+	 * Requests without response: Californium gave up retransmitting, or the deadline of the request expired
+	 */
+	private final AtomicLong timeouts = new AtomicLong();
+
+	private final AtomicLong retransmissions = new AtomicLong();
+
+	/**
+	 * Responses of the gateway which could not be parsed
+	 */
+	private final AtomicLong parseErrors = new AtomicLong();
+
+	/**
+	 * Latency of the exchanges by method and resource type ("GET device", "PUT group"...)
+	 */
+	private final ConcurrentHashMap<String, TradfriHistogram> latencies = new ConcurrentHashMap<String, TradfriHistogram>();
+
+	/**
+	 * Time of the last state received for each device, polled or observed, by gateway address and instance id.
+	 * The metrics may be shared by several gateways, whose instance ids overlap.
+	 */
+	private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> lastUpdates = new ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>>();
+
+	public long getCommandsSent() {
+		return commandsSent.get();
+	}
+
+	public long getCommandsCoalesced() {
+		return commandsCoalesced.get();
+	}
+
+	public long getDevicesPolled() {
+		return devicesPolled.get();
+	}
+
+	public long getFullHandshakes() {
+		return fullHandshakes.get();
+	}
+
+	public long getResumedHandshakes() {
+		return resumedHandshakes.get();
+	}
+
+	/**
+	 * Average time to the first response of a connection with a full handshake, in milliseconds
+	 */
+	public long getAverageFullHandshakeMillis() {
+		final long n = fullHandshakes.get();
+		return (n == 0) ? 0 : fullHandshakeMillis.get() / n;
+	}
+
+	/**
+	 * Average time to the first response of a connection with a resumed session, in milliseconds
+	 */
+	public long getAverageResumedHandshakeMillis() {
+		final long n = resumedHandshakes.get();
+		return (n == 0) ? 0 : resumedHandshakeMillis.get() / n;
+	}
+
+	public long getLastHandshakeMillis() {
+		return lastHandshakeMillis;
+	}
+
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	public long getRetransmissions() {
+		return retransmissions.get();
+	}
+
+	public long getParseErrors() {
+		return parseErrors.get();
+	}
+
+	/**
+	 * Latency of the exchanges of a method ("GET", "PUT") on a resource type ("device", "devices",
+	 * "group", "groups", "other"), null if there was none
+	 */
+	public TradfriHistogram getLatency(final String method, final String resourceType) {
+		return latencies.get(method + " " + resourceType);
+	}
+
+	/**
+	 * Latencies by "method resourceType"
+	 */
+	public Map<String, TradfriHistogram> getLatencies() {
+		return Collections.unmodifiableMap(new TreeMap<String, TradfriHistogram>(latencies));
+	}
+
+	/**
+	 * Time since the last state was received for each device, in milliseconds by gateway address and instance id
+	 */
+	public Map<String, Map<Integer, Long>> getPollAges() {
+		final long now = System.currentTimeMillis();
+		final Map<String, Map<Integer, Long>> ages = new TreeMap<String, Map<Integer, Long>>();
+		for (Map.Entry<String, ConcurrentHashMap<Integer, Long>> gateway : lastUpdates.entrySet()) {
+			final Map<Integer, Long> devices = new TreeMap<Integer, Long>();
+			for (Map.Entry<Integer, Long> entry : gateway.getValue().entrySet()) {
+				devices.put(entry.getKey(), now - entry.getValue());
+			}
+			if (!devices.isEmpty())
+				ages.put(gateway.getKey(), devices);
+		}
+		return ages;
+	}
+
+	/**
+	 * Resource type of a path of the gateway, used to group the latencies
+	 */
+	static String resourceType(final String path) {
+		if (path.equals(TradfriConstants.DEVICES))
+			return "devices";
+		if (path.startsWith(TradfriConstants.DEVICES + "/"))
+			return "device";
+		if (path.equals(TradfriConstants.GROUPS))
+			return "groups";
+		if (path.startsWith(TradfriConstants.GROUPS + "/"))
+			return "group";
+		return "other";
+	}
+
+	void exchanged(final String method, final String path, final long nanos) {
+		final String key = method + " " + resourceType(path);
+		TradfriHistogram histogram = latencies.get(key);
+		if (histogram == null) {
+			histogram = new TradfriHistogram();
+			final TradfriHistogram previous = latencies.putIfAbsent(key, histogram);
+			if (previous != null)
+				histogram = previous;
+		}
+		histogram.record(nanos);
+	}
+
+	void timeout() {
+		timeouts.incrementAndGet();
+	}
+
+	void retransmission() {
+		retransmissions.incrementAndGet();
+	}
+
+	void parseError() {
+		parseErrors.incrementAndGet();
+	}
+
+	void deviceUpdated(final String gateway, final int id) {
+		ConcurrentHashMap<Integer, Long> devices = lastUpdates.get(gateway);
+		if (devices == null) {
+			devices = new ConcurrentHashMap<Integer, Long>();
+			final ConcurrentHashMap<Integer, Long> previous = lastUpdates.putIfAbsent(gateway, devices);
+			if (previous != null)
+				devices = previous;
+		}
+		devices.put(id, System.currentTimeMillis());
+	}
+
+	void deviceForgotten(final String gateway, final int id) {
+		final ConcurrentHashMap<Integer, Long> devices = lastUpdates.get(gateway);
+		if (devices != null)
+			devices.remove(id);
+	}
+
+	/**
+	 * Drops the poll ages of all the devices of a gateway
+	 */
+	void gatewayForgotten(final String gateway) {
+		lastUpdates.remove(gateway);
+	}
+
+	void commandSent() {
+		commandsSent.incrementAndGet();
+	}
+
+	void commandCoalesced() {
+		commandsCoalesced.incrementAndGet();
+	}
+
+	void devicePolled() {
+		devicesPolled.incrementAndGet();
+	}
+
+	void handshake(final long millis, final boolean resumed) {
+		if (resumed) {
+			resumedHandshakes.incrementAndGet();
+			resumedHandshakeMillis.addAndGet(millis);
+		} else {
+			fullHandshakes.incrementAndGet();
+			fullHandshakeMillis.addAndGet(millis);
+		}
+		lastHandshakeMillis = millis;
+	}
+
+	public String toString() {
+		return "[METRICS]\tcommands sent: " + getCommandsSent() + "\tcommands coalesced: " + getCommandsCoalesced() + "\tdevices polled: " + getDevicesPolled()
+				+ "\ttimeouts: " + getTimeouts() + "\tretransmissions: " + getRetransmissions() + "\tparse errors: " + getParseErrors()
+				+ "\thandshakes: " + getFullHandshakes() + " full (avg " + getAverageFullHandshakeMillis() + "ms), " + getResumedHandshakes() + " resumed (avg " + getAverageResumedHandshakeMillis() + "ms)";
+	}
+
+}
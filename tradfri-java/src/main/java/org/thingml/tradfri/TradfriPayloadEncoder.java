@@ -0,0 +1,130 @@
+package org.thingml.tradfri;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Encoder of the command payloads, e.g. {"3311":[{"5850":1,"5851":254}]}.
+ *
+ * The payloads have a small fixed shape (one object wrapping a single set of integer or string
+ * attributes), so they are written directly as UTF-8 into a buffer reused by each thread, without
+ * building a JSON object tree. Only the returned array, handed over to the CoAP request, is allocated.
+ */
+class TradfriPayloadEncoder {
+
+	private static final ThreadLocal<TradfriPayloadEncoder> ENCODERS = new ThreadLocal<TradfriPayloadEncoder>() {
+		@Override
+		protected TradfriPayloadEncoder initialValue() {
+			return new TradfriPayloadEncoder();
+		}
+	};
+
+	private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+	private byte[] buffer = new byte[128];
+
+	private int length;
+
+	/**
+	 * Encodes the attributes, wrapped in the given object (LIGHT, CONTROL...) unless it is null
+	 */
+	static byte[] encode(final String object, final Map<String, Object> settings) {
+		return ENCODERS.get().write(object, settings);
+	}
+
+	private byte[] write(final String object, final Map<String, Object> settings) {
+		length = 0;
+		writeByte('{');
+		if (object != null) {
+			writeString(object);
+			writeByte(':');
+			writeByte('[');
+			writeByte('{');
+		}
+		boolean first = true;
+		for (Map.Entry<String, Object> e : settings.entrySet()) {
+			if (!first)
+				writeByte(',');
+			first = false;
+			writeString(e.getKey());
+			writeByte(':');
+			final Object value = e.getValue();
+			if (value instanceof Integer)
+				writeInt((Integer) value);
+			else
+				writeString(String.valueOf(value));
+		}
+		if (object != null) {
+			writeByte('}');
+			writeByte(']');
+		}
+		writeByte('}');
+		return Arrays.copyOf(buffer, length);
+	}
+
+	private void writeInt(final int value) {
+		long v = value;
+		if (v < 0) {
+			writeByte('-');
+			v = -v;
+		}
+		if (v == 0) {
+			writeByte('0');
+			return;
+		}
+		int digits = 0;
+		for (long t = v; t > 0; t /= 10)
+			digits++;
+		ensure(digits);
+		for (int i = length + digits - 1; i >= length; i--) {
+			buffer[i] = (byte) ('0' + v % 10);
+			v /= 10;
+		}
+		length += digits;
+	}
+
+	private void writeString(final String value) {
+		writeByte('"');
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				writeByte('\\');
+				writeByte(c);
+			} else if (c < 0x20) {
+				writeByte('\\');
+				writeByte('u');
+				writeByte('0');
+				writeByte('0');
+				writeByte(HEX[c >> 4]);
+				writeByte(HEX[c & 0xf]);
+			} else if (c < 0x80) {
+				writeByte(c);
+			} else if (c < 0x800) {
+				writeByte(0xc0 | (c >> 6));
+				writeByte(0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				final int cp = Character.toCodePoint(c, value.charAt(++i));
+				writeByte(0xf0 | (cp >> 18));
+				writeByte(0x80 | ((cp >> 12) & 0x3f));
+				writeByte(0x80 | ((cp >> 6) & 0x3f));
+				writeByte(0x80 | (cp & 0x3f));
+			} else {
+				writeByte(0xe0 | (c >> 12));
+				writeByte(0x80 | ((c >> 6) & 0x3f));
+				writeByte(0x80 | (c & 0x3f));
+			}
+		}
+		writeByte('"');
+	}
+
+	private void writeByte(final int b) {
+		ensure(1);
+		buffer[length++] = (byte) b;
+	}
+
+	private void ensure(final int count) {
+		if (length + count > buffer.length)
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+	}
+
+}
@@ -0,0 +1,166 @@
+package org.thingml.tradfri;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.thingml.tradfri.packet.TradfriGroupPacket;
+import org.thingml.tradfri.packet.TradfriHardwarePacket;
+import org.thingml.tradfri.packet.TradfriResourcePacket;
+
+/**
+ * Per-device polling schedule of the adaptive polling mode.
+ *
+ * Each device has its own polling interval and next due time. A device whose state changed is
+ * polled again after the minimum interval, then its interval doubles with every unchanged poll up
+ * to the maximum interval. Unreachable devices (and devices whose GET fails) back off up to the
+ * offline interval. A command sent to a device brings it back to the minimum interval, so that its
+ * new state is read back soon.
+ *
+ * Groups are polled at their own fixed interval: their state is that of their members, which
+ * are scheduled on their own, so a group does not need to follow the changes of a single device.
+ */
+class TradfriPollingScheduler {
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	private int initialInterval = 5000;
+	private int minInterval = 1000;
+	private int maxInterval = 60000;
+	private int offlineInterval = 300000;
+	private int groupInterval = 5000;
+
+	synchronized void setIntervals(final int initialInterval, final int minInterval, final int maxInterval, final int offlineInterval) {
+		this.initialInterval = initialInterval;
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+		this.offlineInterval = offlineInterval;
+	}
+
+	synchronized void setGroupInterval(final int groupInterval) {
+		this.groupInterval = groupInterval;
+	}
+
+	/**
+	 * Whether the device has to be polled now. A device seen for the first time was just fetched by
+	 * the discovery, so it is scheduled after the initial interval.
+	 */
+	synchronized boolean isDue(final TradfriHardwarePacket<?> device, final long now) {
+		final Entry entry = entries.get(device.getPath());
+		if (entry == null) {
+			entries.put(device.getPath(), new Entry(initialInterval, now + initialInterval));
+			return false;
+		}
+		return entry.next <= now;
+	}
+
+	/**
+	 * Whether the group has to be polled now. A group seen for the first time was just fetched by
+	 * the discovery, so it is scheduled after the group interval.
+	 */
+	synchronized boolean isDue(final TradfriGroupPacket group, final long now) {
+		final Entry entry = entries.get(group.getPath());
+		if (entry == null) {
+			entries.put(group.getPath(), new Entry(groupInterval, now + groupInterval));
+			return false;
+		}
+		return entry.next <= now;
+	}
+
+	/**
+	 * Schedules the next poll of a group, whatever the outcome of the last one
+	 */
+	synchronized void polled(final TradfriGroupPacket group, final long now) {
+		final Entry entry = entry(group.getPath());
+		entry.interval = groupInterval;
+		entry.next = now + groupInterval;
+	}
+
+	/**
+	 * Time to wait until the next device or group is due, at most the minimum interval so that
+	 * resources touched by a command meanwhile are not missed
+	 */
+	synchronized long delay(final Collection<? extends TradfriResourcePacket<?>> resources, final long now) {
+		long delay = minInterval;
+		for (TradfriResourcePacket<?> resource : resources) {
+			final Entry entry = entries.get(resource.getPath());
+			final long next = (entry == null) ? now : entry.next;
+			delay = Math.min(delay, next - now);
+		}
+		return Math.max(0, delay);
+	}
+
+	/**
+	 * Schedules the next poll of a device from the outcome of the last one
+	 */
+	synchronized void polled(final TradfriHardwarePacket<?> device, final boolean changed, final long now) {
+		final Entry entry = entry(device.getPath());
+		if (!device.isOnline())
+			entry.interval = Math.min(Math.max(entry.interval * 2, initialInterval), offlineInterval);
+		else if (changed)
+			entry.interval = minInterval;
+		else
+			entry.interval = Math.min(entry.interval * 2, maxInterval);
+		entry.next = now + entry.interval;
+	}
+
+	synchronized void failed(final TradfriHardwarePacket<?> device, final long now) {
+		final Entry entry = entry(device.getPath());
+		entry.interval = Math.min(Math.max(entry.interval * 2, initialInterval), offlineInterval);
+		entry.next = now + entry.interval;
+	}
+
+	/**
+	 * A command was sent to the resource: its new state is read back after the minimum interval
+	 */
+	synchronized void touched(final String path, final long now) {
+		final Entry entry = entries.get(path);
+		if (entry != null) {
+			entry.interval = minInterval;
+			entry.next = Math.min(entry.next, now + minInterval);
+		}
+	}
+
+	/**
+	 * The state of the device was restored from a snapshot: it is polled at once
+	 */
+	synchronized void stale(final String path) {
+		entry(path).next = 0L;
+	}
+
+	synchronized void forget(final String path) {
+		entries.remove(path);
+	}
+
+	synchronized void clear() {
+		entries.clear();
+	}
+
+	synchronized long getInterval(final String path) {
+		final Entry entry = entries.get(path);
+		return (entry == null) ? initialInterval : entry.interval;
+	}
+
+	private Entry entry(final String path) {
+		Entry entry = entries.get(path);
+		if (entry == null) {
+			entry = new Entry(initialInterval, 0L);
+			entries.put(path, entry);
+		}
+		return entry;
+	}
+
+	private static class Entry {
+
+		private long interval;
+
+		private long next;
+
+		private Entry(final long interval, final long next) {
+			this.interval = interval;
+			this.next = next;
+		}
+
+	}
+
+}
@@ -0,0 +1,264 @@
+package org.thingml.tradfri;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Exports the metrics of gateways in the Prometheus text format, as a string or from a local HTTP
+ * endpoint (GET /metrics).
+ *
+ * Each registered gateway (or manager) is a source labeled with its name. Metrics or dispatchers
+ * shared by several sources (see {@link TradfriGatewayManager}) are exported once, under the name of
+ * the first source using them.
+ */
+public class TradfriPrometheusExporter {
+
+	public static final int DEFAULT_PORT = 9290;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final Map<String, Source> sources = Collections.synchronizedMap(new LinkedHashMap<String, Source>());
+
+	private HttpServer server = null;
+
+	public void register(final String name, final TradfriGateway gateway) {
+		sources.put(name, new Source(name, gateway.getMetrics(), gateway.getDispatcher(), gateway.getHealthMonitor()));
+	}
+
+	public void register(final String name, final TradfriGatewayManager manager) {
+		sources.put(name, new Source(name, manager.getMetrics(), manager.getDispatcher(), null));
+	}
+
+	public void unregister(final String name) {
+		sources.remove(name);
+	}
+
+	/**
+	 * Serves the metrics on the loopback interface
+	 */
+	public void start(final int port) throws IOException {
+		start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+	}
+
+	public synchronized void start(final InetSocketAddress address) throws IOException {
+		if (server != null)
+			return;
+		server = HttpServer.create(address, 0);
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				final byte[] body = scrape().getBytes(UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+				exchange.sendResponseHeaders(200, body.length);
+				final OutputStream out = exchange.getResponseBody();
+				try {
+					out.write(body);
+				} finally {
+					out.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	public synchronized void stop() {
+		if (server == null)
+			return;
+		server.stop(0);
+		server = null;
+	}
+
+	/**
+	 * Address the endpoint is bound to, null if not started
+	 */
+	public synchronized InetSocketAddress getAddress() {
+		return (server == null) ? null : server.getAddress();
+	}
+
+	/**
+	 * Current values of all the sources, in the Prometheus text format
+	 */
+	public String scrape() {
+		final List<Source> all;
+		synchronized (sources) {
+			all = new ArrayList<Source>(sources.values());
+		}
+		// Shared metrics and dispatchers are exported once
+		final Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		final List<Source> metrics = new ArrayList<Source>();
+		final List<Source> dispatchers = new ArrayList<Source>();
+		for (Source source : all) {
+			if (seen.add(source.metrics))
+				metrics.add(source);
+			if (seen.add(source.dispatcher))
+				dispatchers.add(source);
+		}
+
+		final StringBuilder out = new StringBuilder(4096);
+		header(out, "tradfri_request_duration_seconds", "histogram", "Latency of the CoAP exchanges with the gateway");
+		for (Source source : metrics) {
+			for (Map.Entry<String, TradfriHistogram> entry : source.metrics.getLatencies().entrySet()) {
+				final String[] key = entry.getKey().split(" ", 2);
+				histogram(out, "tradfri_request_duration_seconds", labels("gateway", source.name, "method", key[0], "resource", key[1]), entry.getValue());
+			}
+		}
+		counter(out, metrics, "tradfri_request_timeouts_total", "Requests without response, retransmissions exhausted or deadline expired", new Value() {
+			@Override
+			public long get(final TradfriMetrics m) {
+				return m.getTimeouts();
+			}
+		});
+		counter(out, metrics, "tradfri_retransmissions_total", "CoAP retransmissions", new Value() {
+			@Override
+			public long get(final TradfriMetrics m) {
+				return m.getRetransmissions();
+			}
+		});
+		counter(out, metrics, "tradfri_parse_errors_total", "Responses of the gateway which could not be parsed", new Value() {
+			@Override
+			public long get(final TradfriMetrics m) {
+				return m.getParseErrors();
+			}
+		});
+		counter(out, metrics, "tradfri_commands_sent_total", "Commands sent to the devices", new Value() {
+			@Override
+			public long get(final TradfriMetrics m) {
+				return m.getCommandsSent();
+			}
+		});
+		counter(out, metrics, "tradfri_commands_coalesced_total", "Commands merged into a pending command", new Value() {
+			@Override
+			public long get(final TradfriMetrics m) {
+				return m.getCommandsCoalesced();
+			}
+		});
+		counter(out, metrics, "tradfri_devices_polled_total", "Requests issued by the polling cycles", new Value() {
+			@Override
+			public long get(final TradfriMetrics m) {
+				return m.getDevicesPolled();
+			}
+		});
+		header(out, "tradfri_handshakes_total", "counter", "DTLS handshakes, full or resumed session");
+		for (Source source : metrics) {
+			sample(out, "tradfri_handshakes_total", labels("gateway", source.name, "type", "full"), source.metrics.getFullHandshakes());
+			sample(out, "tradfri_handshakes_total", labels("gateway", source.name, "type", "resumed"), source.metrics.getResumedHandshakes());
+		}
+		header(out, "tradfri_device_poll_age_seconds", "gauge", "Time since the last state of the device was received");
+		for (Source source : metrics) {
+			for (Map.Entry<String, Map<Integer, Long>> gateway : source.metrics.getPollAges().entrySet()) {
+				for (Map.Entry<Integer, Long> entry : gateway.getValue().entrySet()) {
+					sample(out, "tradfri_device_poll_age_seconds", labels("gateway", source.name, "address", gateway.getKey(), "device", String.valueOf(entry.getKey())), seconds(entry.getValue() * 1000000));
+				}
+			}
+		}
+
+		header(out, "tradfri_event_dispatch_duration_seconds", "histogram", "Time from the dispatch of an event to the end of its delivery to a listener");
+		for (Source source : dispatchers) {
+			histogram(out, "tradfri_event_dispatch_duration_seconds", labels("gateway", source.name), source.dispatcher.getLatency());
+		}
+		header(out, "tradfri_event_queue_depth", "gauge", "Events waiting to be delivered");
+		for (Source source : dispatchers) {
+			sample(out, "tradfri_event_queue_depth", labels("gateway", source.name), source.dispatcher.getQueueDepth());
+		}
+		header(out, "tradfri_events_dropped_total", "counter", "Events dropped because the queue of their stripe was full");
+		for (Source source : dispatchers) {
+			sample(out, "tradfri_events_dropped_total", labels("gateway", source.name), source.dispatcher.getDropped());
+		}
+
+		header(out, "tradfri_circuit_open", "gauge", "1 while the gateway is considered unreachable");
+		for (Source source : all) {
+			if (source.health != null)
+				sample(out, "tradfri_circuit_open", labels("gateway", source.name), (source.health.getState() == TradfriHealthMonitor.State.CLOSED) ? 0 : 1);
+		}
+		return out.toString();
+	}
+
+	private static void counter(final StringBuilder out, final List<Source> sources, final String name, final String help, final Value value) {
+		header(out, name, "counter", help);
+		for (Source source : sources) {
+			sample(out, name, labels("gateway", source.name), value.get(source.metrics));
+		}
+	}
+
+	private static void histogram(final StringBuilder out, final String name, final String labels, final TradfriHistogram histogram) {
+		final long[] bounds = TradfriHistogram.getBounds();
+		final long[] counts = histogram.getCumulativeCounts();
+		final String prefix = labels.substring(0, labels.length() - 1) + ",le=\"";
+		for (int i = 0; i < bounds.length; i++) {
+			sample(out, name + "_bucket", prefix + seconds(bounds[i] * 1000) + "\"}", counts[i]);
+		}
+		sample(out, name + "_bucket", prefix + "+Inf\"}", counts[counts.length - 1]);
+		sample(out, name + "_sum", labels, seconds(histogram.getSumNanos()));
+		sample(out, name + "_count", labels, counts[counts.length - 1]);
+	}
+
+	private static void header(final StringBuilder out, final String name, final String type, final String help) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(final StringBuilder out, final String name, final String labels, final Object value) {
+		out.append(name).append(labels).append(' ').append(value).append('\n');
+	}
+
+	private static String labels(final String... pairs) {
+		final StringBuilder labels = new StringBuilder("{");
+		for (int i = 0; i < pairs.length; i += 2) {
+			if (i > 0)
+				labels.append(',');
+			labels.append(pairs[i]).append("=\"").append(escape(pairs[i + 1])).append('"');
+		}
+		return labels.append('}').toString();
+	}
+
+	private static String escape(final String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static String seconds(final long nanos) {
+		return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+	}
+
+	private interface Value {
+
+		long get(TradfriMetrics metrics);
+
+	}
+
+	private static class Source {
+
+		private final String name;
+
+		private final TradfriMetrics metrics;
+
+		private final TradfriEventDispatcher dispatcher;
+
+		private final TradfriHealthMonitor health;
+
+		private Source(final String name, final TradfriMetrics metrics, final TradfriEventDispatcher dispatcher, final TradfriHealthMonitor health) {
+			this.name = name;
+			this.metrics = metrics;
+			this.dispatcher = dispatcher;
+			this.health = health;
+		}
+
+	}
+
+}
@@ -0,0 +1,57 @@
+package org.thingml.tradfri;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.californium.scandium.dtls.pskstore.PskStore;
+import org.eclipse.californium.scandium.util.ServerNames;
+
+/**
+ * Pre-shared keys of several gateways, for a single DTLS connector talking to all of them.
+ *
+ * All the gateways use the same (empty) identity, so the key can't be found from the identity
+ * alone: the client handshaker asks for the identity of the peer and then for the key of that
+ * identity on the same thread, the peer is remembered in between.
+ */
+public class TradfriPskStore implements PskStore {
+
+	/**
+	 * Default port of the CoAP over DTLS server of the gateway
+	 */
+	public static final int COAPS_PORT = 5684;
+
+	private static final String IDENTITY = "";
+
+	private final ConcurrentHashMap<InetSocketAddress, byte[]> keys = new ConcurrentHashMap<InetSocketAddress, byte[]>();
+
+	private final ThreadLocal<InetSocketAddress> peer = new ThreadLocal<InetSocketAddress>();
+
+	public void setKey(final String gatewayIp, final String securityKey) {
+		keys.put(new InetSocketAddress(gatewayIp, COAPS_PORT), securityKey.getBytes());
+	}
+
+	public void removeKey(final String gatewayIp) {
+		keys.remove(new InetSocketAddress(gatewayIp, COAPS_PORT));
+	}
+
+	@Override
+	public String getIdentity(final InetSocketAddress inetAddress) {
+		if (!keys.containsKey(inetAddress))
+			return null;
+		peer.set(inetAddress);
+		return IDENTITY;
+	}
+
+	@Override
+	public byte[] getKey(final String identity) {
+		final InetSocketAddress address = peer.get();
+		peer.remove();
+		return (address == null) ? null : keys.get(address);
+	}
+
+	@Override
+	public byte[] getKey(final ServerNames serverNames, final String identity) {
+		return getKey(identity);
+	}
+
+}
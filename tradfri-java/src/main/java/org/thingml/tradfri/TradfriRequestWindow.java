@@ -0,0 +1,62 @@
+package org.thingml.tradfri;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.thingml.tradfri.listener.TradfriFutureListener;
+
+/**
+ * Keeps a bounded number of asynchronous requests in flight.
+ *
+ * Callers {@link #acquire()} a slot before issuing a request, {@link #track(TradfriFuture)} the
+ * returned future so that the slot is released when it is done, and {@link #await()} the end of
+ * all tracked requests. Listeners added to a future before it is tracked run before its slot is released.
+ */
+class TradfriRequestWindow {
+
+	private final int size;
+
+	private final Semaphore permits;
+
+	private final TradfriFutureListener<Object> release = new TradfriFutureListener<Object>() {
+		@Override
+		public void completed(final Object result) {
+			permits.release();
+		}
+
+		@Override
+		public void failed(final Throwable cause) {
+			permits.release();
+		}
+	};
+
+	TradfriRequestWindow(final int size) {
+		this.size = size;
+		this.permits = new Semaphore(size);
+	}
+
+	void acquire() throws InterruptedException {
+		permits.acquire();
+	}
+
+	/**
+	 * Waits at most the timeout for a slot
+	 */
+	boolean acquire(final long timeoutMillis) throws InterruptedException {
+		return permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	<V> TradfriFuture<V> track(final TradfriFuture<V> future) {
+		future.addListener(release);
+		return future;
+	}
+
+	/**
+	 * Waits until all the tracked requests are done
+	 */
+	void await() throws InterruptedException {
+		permits.acquire(size);
+		permits.release(size);
+	}
+
+}
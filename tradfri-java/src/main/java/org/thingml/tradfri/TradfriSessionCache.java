@@ -0,0 +1,86 @@
+package org.thingml.tradfri;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.californium.scandium.dtls.DTLSSession;
+import org.eclipse.californium.scandium.dtls.SessionCache;
+import org.eclipse.californium.scandium.dtls.SessionId;
+import org.eclipse.californium.scandium.dtls.SessionTicket;
+
+/**
+ * DTLS sessions established with the gateways, by peer and by session id.
+ *
+ * The connector stores every established session here and drops the ones it terminates. Comparing
+ * the session of a peer before and after a handshake tells whether the session was resumed (same id,
+ * abbreviated handshake) or negotiated again (new id, full PSK handshake).
+ */
+public class TradfriSessionCache implements SessionCache {
+
+	private final Map<InetSocketAddress, Entry> byPeer = new ConcurrentHashMap<InetSocketAddress, Entry>();
+
+	private final Map<SessionId, Entry> byId = new ConcurrentHashMap<SessionId, Entry>();
+
+	@Override
+	public void put(final DTLSSession session) {
+		final SessionTicket ticket = session.getSessionTicket();
+		if (ticket == null || session.getPeer() == null)
+			return;
+		put(new Entry(session.getPeer(), session.getSessionIdentifier(), ticket));
+	}
+
+	@Override
+	public SessionTicket get(final SessionId id) {
+		final Entry entry = byId.get(id);
+		return (entry == null) ? null : entry.ticket;
+	}
+
+	@Override
+	public void remove(final SessionId id) {
+		final Entry entry = byId.remove(id);
+		if (entry != null)
+			byPeer.remove(entry.peer, entry);
+	}
+
+	/**
+	 * Id of the session last established with a peer, null if none
+	 */
+	public SessionId getSessionId(final InetSocketAddress peer) {
+		final Entry entry = byPeer.get(peer);
+		return (entry == null) ? null : entry.id;
+	}
+
+	public int size() {
+		return byPeer.size();
+	}
+
+	public void clear() {
+		byPeer.clear();
+		byId.clear();
+	}
+
+	private void put(final Entry entry) {
+		final Entry previous = byPeer.put(entry.peer, entry);
+		if (previous != null)
+			byId.remove(previous.id);
+		byId.put(entry.id, entry);
+	}
+
+	private static class Entry {
+
+		private final InetSocketAddress peer;
+
+		private final SessionId id;
+
+		private final SessionTicket ticket;
+
+		private Entry(final InetSocketAddress peer, final SessionId id, final SessionTicket ticket) {
+			this.peer = peer;
+			this.id = id;
+			this.ticket = ticket;
+		}
+
+	}
+
+}
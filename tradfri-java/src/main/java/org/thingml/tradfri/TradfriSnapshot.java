@@ -0,0 +1,160 @@
+package org.thingml.tradfri;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Devices and groups of a gateway saved to a local file, so that the next start can publish them at
+ * once instead of waiting for the discovery (see {@link TradfriGateway#setSnapshotFile(File)}).
+ *
+ * The snapshot keeps the last JSON received for each device and group (ids, types, names, metadata
+ * and state) and the ids of the devices which are not handled (remotes, sensors...), in a gzipped
+ * JSON document. It is written to a temporary file renamed over the previous one, so an interrupted
+ * save leaves the previous snapshot intact.
+ */
+public class TradfriSnapshot {
+
+	public static final int VERSION = 1;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String KEY_VERSION = "version";
+	private static final String KEY_GATEWAY = "gateway";
+	private static final String KEY_SAVED = "saved";
+	private static final String KEY_DEVICES = "devices";
+	private static final String KEY_GROUPS = "groups";
+	private static final String KEY_OTHERS = "others";
+
+	private final String gatewayIp;
+
+	private final long savedAt;
+
+	private final List<JSONObject> devices;
+
+	private final List<JSONObject> groups;
+
+	private final List<Integer> otherDevices;
+
+	public TradfriSnapshot(final String gatewayIp, final long savedAt, final List<JSONObject> devices, final List<JSONObject> groups, final List<Integer> otherDevices) {
+		this.gatewayIp = gatewayIp;
+		this.savedAt = savedAt;
+		this.devices = Collections.unmodifiableList(new ArrayList<JSONObject>(devices));
+		this.groups = Collections.unmodifiableList(new ArrayList<JSONObject>(groups));
+		this.otherDevices = Collections.unmodifiableList(new ArrayList<Integer>(otherDevices));
+	}
+
+	public String getGatewayIp() {
+		return gatewayIp;
+	}
+
+	/**
+	 * Time the snapshot was taken, in milliseconds since the epoch
+	 */
+	public long getSavedAt() {
+		return savedAt;
+	}
+
+	/**
+	 * Last JSON of each bulb and control outlet
+	 */
+	public List<JSONObject> getDevices() {
+		return devices;
+	}
+
+	/**
+	 * Last JSON of each group
+	 */
+	public List<JSONObject> getGroups() {
+		return groups;
+	}
+
+	/**
+	 * Ids of the devices which are neither bulbs nor control outlets
+	 */
+	public List<Integer> getOtherDevices() {
+		return otherDevices;
+	}
+
+	public void write(final File file) throws IOException {
+		final JSONObject json = new JSONObject();
+		json.put(KEY_VERSION, VERSION);
+		json.put(KEY_GATEWAY, gatewayIp);
+		json.put(KEY_SAVED, savedAt);
+		json.put(KEY_DEVICES, new JSONArray(devices));
+		json.put(KEY_GROUPS, new JSONArray(groups));
+		json.put(KEY_OTHERS, new JSONArray(otherDevices));
+
+		final File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create the directory of " + file);
+		final File tmp = new File(dir, file.getName() + ".tmp");
+		final Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tmp)), UTF_8);
+		try {
+			json.write(writer);
+		} catch (JSONException ex) {
+			throw new IOException("Cannot write snapshot " + file, ex);
+		} finally {
+			writer.close();
+		}
+		if (!tmp.renameTo(file)) {
+			// Windows does not rename over an existing file
+			file.delete();
+			if (!tmp.renameTo(file))
+				throw new IOException("Cannot replace snapshot " + file);
+		}
+	}
+
+	public static TradfriSnapshot read(final File file) throws IOException {
+		final Reader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), UTF_8));
+		try {
+			final JSONObject json = new JSONObject(new JSONTokener(reader));
+			if (json.getInt(KEY_VERSION) != VERSION)
+				throw new IOException("Unsupported snapshot version " + json.getInt(KEY_VERSION) + " in " + file);
+			return new TradfriSnapshot(json.getString(KEY_GATEWAY), json.getLong(KEY_SAVED),
+					objects(json.getJSONArray(KEY_DEVICES)), objects(json.getJSONArray(KEY_GROUPS)), ints(json.getJSONArray(KEY_OTHERS)));
+		} catch (JSONException ex) {
+			throw new IOException("Corrupted snapshot " + file, ex);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static List<JSONObject> objects(final JSONArray array) {
+		final List<JSONObject> objects = new ArrayList<JSONObject>();
+		for (int i = 0; i < array.length(); i++) {
+			objects.add(array.getJSONObject(i));
+		}
+		return objects;
+	}
+
+	private static List<Integer> ints(final JSONArray array) {
+		final List<Integer> ints = new ArrayList<Integer>();
+		for (int i = 0; i < array.length(); i++) {
+			ints.add(array.getInt(i));
+		}
+		return ints;
+	}
+
+	public String toString() {
+		return "[SNAPSHOT " + gatewayIp + "]\tdevices: " + devices.size() + "\tgroups: " + groups.size() + "\tothers: " + otherDevices.size() + "\tsaved: " + savedAt;
+	}
+
+}
@@ -0,0 +1,265 @@
+package org.thingml.tradfri;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.thingml.tradfri.listener.TradfriControlOutletListener;
+import org.thingml.tradfri.listener.TradfriGroupListener;
+import org.thingml.tradfri.listener.TradfriLightBulbListener;
+import org.thingml.tradfri.packet.TradfriControlOutletPacket;
+import org.thingml.tradfri.packet.TradfriGroupPacket;
+import org.thingml.tradfri.packet.TradfriLightBulbPacket;
+import org.thingml.tradfri.packet.TradfriPacket;
+
+/**
+ * Latest-state delivery for consumers slower than the state changes (GUI, remote bridge...).
+ *
+ * Instead of queuing every state change, each subscribed packet has a single "changed" slot:
+ * a change marks the slot, further changes before the consumer runs are conflated into it, and
+ * the consumer gets the packet once, with its newest state. Memory is bounded to one slot per
+ * subscribed packet however bursty the changes are.
+ *
+ * With an executor (e.g. one posting to the Swing event queue) the subscribed listeners are called
+ * on it as soon as a slot is marked. Without executor the consumer pulls the changed packets with
+ * {@link #drain()}.
+ */
+public class TradfriStateSubscription {
+
+	/**
+	 * Logger to be used for all console outputs, errors and exceptions
+	 */
+	private static final Logger log = LoggerFactory.getLogger(TradfriStateSubscription.class);
+
+	private final Executor executor;
+
+	private final ConcurrentHashMap<TradfriPacket, Slot> slots = new ConcurrentHashMap<TradfriPacket, Slot>();
+
+	/**
+	 * Slots marked since the last drain
+	 */
+	private final Set<Slot> changed = Collections.newSetFromMap(new ConcurrentHashMap<Slot, Boolean>());
+
+	private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+	private final AtomicLong conflated = new AtomicLong();
+
+	private final Runnable drainTask = new Runnable() {
+		@Override
+		public void run() {
+			drainScheduled.set(false);
+			for (Slot slot : drainSlots()) {
+				try {
+					slot.deliver();
+				} catch (Exception ex) {
+					log.warn("Listener " + slot + " failed", ex);
+				}
+			}
+		}
+	};
+
+	/**
+	 * Pull subscription, the changed packets are collected with {@link #drain()}
+	 */
+	public TradfriStateSubscription() {
+		this(null);
+	}
+
+	/**
+	 * Push subscription, the listeners are called on the executor
+	 */
+	public TradfriStateSubscription(final Executor executor) {
+		this.executor = executor;
+	}
+
+	public void subscribe(final TradfriLightBulbPacket bulb) {
+		subscribe(bulb, null);
+	}
+
+	public void subscribe(final TradfriLightBulbPacket bulb, final TradfriLightBulbListener listener) {
+		final BulbSlot slot = new BulbSlot(bulb, listener);
+		if (register(bulb, slot))
+			bulb.addListener(slot);
+	}
+
+	public void subscribe(final TradfriControlOutletPacket controlOutlet) {
+		subscribe(controlOutlet, null);
+	}
+
+	public void subscribe(final TradfriControlOutletPacket controlOutlet, final TradfriControlOutletListener listener) {
+		final ControlOutletSlot slot = new ControlOutletSlot(controlOutlet, listener);
+		if (register(controlOutlet, slot))
+			controlOutlet.addListener(slot);
+	}
+
+	public void subscribe(final TradfriGroupPacket group) {
+		subscribe(group, null);
+	}
+
+	public void subscribe(final TradfriGroupPacket group, final TradfriGroupListener listener) {
+		final GroupSlot slot = new GroupSlot(group, listener);
+		if (register(group, slot))
+			group.addListener(slot);
+	}
+
+	public void unsubscribe(final TradfriPacket packet) {
+		final Slot slot = slots.remove(packet);
+		if (slot != null) {
+			changed.remove(slot);
+			slot.detach();
+		}
+	}
+
+	public void unsubscribeAll() {
+		for (TradfriPacket packet : new ArrayList<TradfriPacket>(slots.keySet())) {
+			unsubscribe(packet);
+		}
+	}
+
+	/**
+	 * Packets whose state changed since the last drain, each once with its newest state
+	 */
+	public List<TradfriPacket> drain() {
+		final List<TradfriPacket> packets = new ArrayList<TradfriPacket>();
+		for (Slot slot : drainSlots()) {
+			packets.add(slot.packet);
+		}
+		return packets;
+	}
+
+	/**
+	 * State changes merged into a slot which was already marked
+	 */
+	public long getConflated() {
+		return conflated.get();
+	}
+
+	private boolean register(final TradfriPacket packet, final Slot slot) {
+		return slots.putIfAbsent(packet, slot) == null;
+	}
+
+	private List<Slot> drainSlots() {
+		final List<Slot> drained = new ArrayList<Slot>();
+		for (Slot slot : changed) {
+			if (changed.remove(slot))
+				drained.add(slot);
+		}
+		return drained;
+	}
+
+	private void mark(final Slot slot) {
+		if (!changed.add(slot)) {
+			conflated.incrementAndGet();
+			return;
+		}
+		if (executor != null && drainScheduled.compareAndSet(false, true))
+			executor.execute(drainTask);
+	}
+
+	private abstract class Slot {
+
+		protected final TradfriPacket packet;
+
+		protected Slot(final TradfriPacket packet) {
+			this.packet = packet;
+		}
+
+		protected abstract void deliver();
+
+		protected abstract void detach();
+
+		public String toString() {
+			return packet.getPacketType() + " slot";
+		}
+
+	}
+
+	private class BulbSlot extends Slot implements TradfriLightBulbListener {
+
+		private final TradfriLightBulbListener listener;
+
+		private BulbSlot(final TradfriLightBulbPacket bulb, final TradfriLightBulbListener listener) {
+			super(bulb);
+			this.listener = listener;
+		}
+
+		@Override
+		public void bulbStateChanged(final TradfriLightBulbPacket bulb) {
+			mark(this);
+		}
+
+		@Override
+		protected void deliver() {
+			if (listener != null)
+				listener.bulbStateChanged((TradfriLightBulbPacket) packet);
+		}
+
+		@Override
+		protected void detach() {
+			((TradfriLightBulbPacket) packet).removeListener(this);
+		}
+
+	}
+
+	private class ControlOutletSlot extends Slot implements TradfriControlOutletListener {
+
+		private final TradfriControlOutletListener listener;
+
+		private ControlOutletSlot(final TradfriControlOutletPacket controlOutlet, final TradfriControlOutletListener listener) {
+			super(controlOutlet);
+			this.listener = listener;
+		}
+
+		@Override
+		public void controlOutletStateChanged(final TradfriControlOutletPacket controlOutlet) {
+			mark(this);
+		}
+
+		@Override
+		protected void deliver() {
+			if (listener != null)
+				listener.controlOutletStateChanged((TradfriControlOutletPacket) packet);
+		}
+
+		@Override
+		protected void detach() {
+			((TradfriControlOutletPacket) packet).removeListener(this);
+		}
+
+	}
+
+	private class GroupSlot extends Slot implements TradfriGroupListener {
+
+		private final TradfriGroupListener listener;
+
+		private GroupSlot(final TradfriGroupPacket group, final TradfriGroupListener listener) {
+			super(group);
+			this.listener = listener;
+		}
+
+		@Override
+		public void groupStateChanged(final TradfriGroupPacket group) {
+			mark(this);
+		}
+
+		@Override
+		protected void deliver() {
+			if (listener != null)
+				listener.groupStateChanged((TradfriGroupPacket) packet);
+		}
+
+		@Override
+		protected void detach() {
+			((TradfriGroupPacket) packet).removeListener(this);
+		}
+
+	}
+
+}
@@ -0,0 +1,9 @@
+package org.thingml.tradfri.listener;
+
+import org.thingml.tradfri.TradfriAttributeChange;
+
+public interface TradfriAttributeListener {
+
+	public void attributeChanged(TradfriAttributeChange change);
+
+}
@@ -0,0 +1,9 @@
+package org.thingml.tradfri.listener;
+
+public interface TradfriFutureListener<V> {
+
+	public void completed(V result);
+
+	public void failed(Throwable cause);
+
+}
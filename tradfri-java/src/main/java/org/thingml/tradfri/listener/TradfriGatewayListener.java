@@ -2,6 +2,7 @@ package org.thingml.tradfri.listener;
 
 import org.thingml.tradfri.TradfriGateway;
 import org.thingml.tradfri.packet.TradfriControlOutletPacket;
+import org.thingml.tradfri.packet.TradfriGroupPacket;
 import org.thingml.tradfri.packet.TradfriLightBulbPacket;
 
 /**
@@ -18,18 +19,33 @@ public interface TradfriGatewayListener {
 
 	public void lightBulbDiscoveryCompleted(TradfriGateway gateway);
 
+	public void lightBulbRemoved(TradfriGateway gateway, TradfriLightBulbPacket lightBulb);
+
 	public void controlOutletDiscoveryStarted(TradfriGateway gateway, int totalDevices);
 
 	public void controlOutletDiscovered(TradfriGateway gateway, TradfriControlOutletPacket controlOutlet);
 
 	public void controlOutletDiscoveryCompleted(TradfriGateway gateway);
 
+	public void controlOutletRemoved(TradfriGateway gateway, TradfriControlOutletPacket controlOutlet);
+
+	public void groupDiscoveryStarted(TradfriGateway gateway, int totalGroups);
+
+	public void groupDiscovered(TradfriGateway gateway, TradfriGroupPacket group);
+
+	public void groupDiscoveryCompleted(TradfriGateway gateway);
+
+	public void groupRemoved(TradfriGateway gateway, TradfriGroupPacket group);
+
 	public void gatewayStarted(TradfriGateway gateway);
 
 	public void gatewayStoped(TradfriGateway gateway);
 
 	public void pollingStarted(TradfriGateway gateway);
 
-	public void pollingCompleted(TradfriGateway gateway, int deviceCount, int totalTime);
+	/**
+	 * @param skippedCount devices and groups deferred to the next cycle because the polling budget ran out
+	 */
+	public void pollingCompleted(TradfriGateway gateway, int deviceCount, int skippedCount, int totalTime);
 	
 }
@@ -0,0 +1,9 @@
+package org.thingml.tradfri.listener;
+
+import org.thingml.tradfri.packet.TradfriGroupPacket;
+
+public interface TradfriGroupListener {
+
+	public void groupStateChanged(TradfriGroupPacket group);
+
+}
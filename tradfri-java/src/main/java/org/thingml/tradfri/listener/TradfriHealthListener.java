@@ -0,0 +1,10 @@
+package org.thingml.tradfri.listener;
+
+import org.thingml.tradfri.TradfriGateway;
+import org.thingml.tradfri.TradfriHealthMonitor;
+
+public interface TradfriHealthListener {
+
+	public void healthChanged(TradfriGateway gateway, TradfriHealthMonitor.State previous, TradfriHealthMonitor.State state);
+
+}
@@ -1,12 +1,18 @@
 package org.thingml.tradfri.packet;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.thingml.tradfri.TradfriAttributeChange;
+import org.thingml.tradfri.TradfriCommand;
 import org.thingml.tradfri.TradfriConstants;
+import org.thingml.tradfri.TradfriEvent;
+import org.thingml.tradfri.TradfriFuture;
 import org.thingml.tradfri.TradfriGateway;
 import org.thingml.tradfri.listener.TradfriControlOutletListener;
 import org.eclipse.californium.core.CoapResponse;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -31,6 +37,10 @@ public class TradfriControlOutletPacket extends TradfriHardwarePacket<TradfriCon
 		super(PACKET_TYPE_CONTROL_OUTLET, id, gateway, response);
 	}
 
+	public TradfriControlOutletPacket(final int id, final TradfriGateway gateway, final JSONObject json) {
+		super(PACKET_TYPE_CONTROL_OUTLET, id, gateway, json);
+	}
+
 	public boolean isOnline() {
 		return online;
 	}
@@ -40,57 +50,57 @@ public class TradfriControlOutletPacket extends TradfriHardwarePacket<TradfriCon
 	}
 
 	public void setOn(boolean on) {
-		try {
-			JSONObject json = new JSONObject();
-			JSONObject settings = new JSONObject();
-			JSONArray array = new JSONArray();
-			array.put(settings);
-			json.put(TradfriConstants.LIGHT, array);
-			settings.put(TradfriConstants.ONOFF, (on) ? 1 : 0);
-			String payload = json.toString();
-			getGateway().set(TradfriConstants.DEVICES + "/" + this.getId(), payload);
-
-		} catch (JSONException ex) {
-			log.error("Error", ex);
-		}
+		sendCommandAndWait(onCommand(on));
 		this.on = on;
 	}
 
+	public TradfriFuture<CoapResponse> setOnAsync(boolean on) {
+		this.on = on;
+		return sendCommand(onCommand(on));
+	}
+
+	private static TradfriCommand onCommand(boolean on) {
+		return new TradfriCommand(TradfriConstants.CONTROL).set(TradfriConstants.ONOFF, (on) ? 1 : 0);
+	}
+
 	@Override
-	public void update() throws JSONException {
-		CoapResponse response = getGateway().get(TradfriConstants.DEVICES + "/" + getId());
-		if (response != null) {
-			boolean updateListeners = super.parseResponseBase(response);
-			
-			final JSONObject json = new JSONObject(response.getResponseText());
+	public void update(final JSONObject json) throws JSONException {
+		if (json != null) {
+			final List<TradfriAttributeChange> changes = new ArrayList<TradfriAttributeChange>();
+			boolean updateListeners = parseBase(json, changes);
+
+			final JSONObject control = json.getJSONArray(TradfriConstants.CONTROL).getJSONObject(0);
+			final boolean hasState = control.has(TradfriConstants.ONOFF);
 
-			final boolean new_online = json.getInt(TradfriConstants.DEVICE_REACHABLE) != 0;
-			if (new_online != online)
+			// An outlet without state is unreachable whatever the gateway says, reported as a single change
+			final boolean new_online = hasState && json.getInt(TradfriConstants.DEVICE_REACHABLE) != 0;
+			if (new_online != online) {
 				updateListeners = true;
+				changed(changes, TradfriConstants.DEVICE_REACHABLE, online, new_online);
+			}
 			online = new_online;
 
-			final JSONObject control = json.getJSONArray(TradfriConstants.CONTROL).getJSONObject(0);
-			if (control.has(TradfriConstants.ONOFF)) {
+			if (hasState) {
 				final boolean new_on = (control.getInt(TradfriConstants.ONOFF) != 0);
-				if (on != new_on)
+				if (on != new_on) {
 					updateListeners = true;
+					changed(changes, TradfriConstants.ONOFF, on, new_on);
+				}
 				on = new_on;
-			} else {
-				if (online)
-					updateListeners = true;
-				online = false;
 			}
 			
 			if (updateListeners) {
+				setTimestamp(System.currentTimeMillis());
+
 				// Notify all listeners
-				for (TradfriControlOutletListener listener : listeners) {
-					try {
-						listener.controlOutletStateChanged(this);
-					} catch (Exception ex) {
-						//
+				fire(new TradfriEvent<TradfriControlOutletListener>() {
+					@Override
+					public void deliver(final TradfriControlOutletListener listener) {
+						listener.controlOutletStateChanged(TradfriControlOutletPacket.this);
 					}
-				}
+				});
 			}
+			fireChanges(changes);
 		}
 	}
 
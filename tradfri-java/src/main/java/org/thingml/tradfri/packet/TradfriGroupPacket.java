@@ -0,0 +1,178 @@
+package org.thingml.tradfri.packet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.californium.core.CoapResponse;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.thingml.tradfri.TradfriAttributeChange;
+import org.thingml.tradfri.TradfriCommand;
+import org.thingml.tradfri.TradfriConstants;
+import org.thingml.tradfri.TradfriEvent;
+import org.thingml.tradfri.TradfriFuture;
+import org.thingml.tradfri.TradfriGateway;
+import org.thingml.tradfri.listener.TradfriGroupListener;
+
+/**
+ * Group of devices (also called room). Commands sent to a group are applied by the gateway
+ * to all its members with a single request.
+ */
+public class TradfriGroupPacket extends TradfriResourcePacket<TradfriGroupListener> {
+
+	private String name;
+
+	// State of the group
+	private boolean on;
+	private int intensity;
+	private int sceneId;
+	private List<Integer> members = Collections.emptyList();
+
+	private JSONObject jsonObject;
+
+	public TradfriGroupPacket(final int id, final TradfriGateway gateway) {
+		super(PACKET_TYPE_GROUP, id, gateway);
+	}
+
+	public TradfriGroupPacket(final int id, final TradfriGateway gateway, final CoapResponse response) throws JSONException {
+		this(id, gateway);
+
+		update(response);
+	}
+
+	public String getPath() {
+		return TradfriConstants.GROUPS + "/" + getId();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getSceneId() {
+		return sceneId;
+	}
+
+	/**
+	 * Ids of the devices in the group (bulbs, outlets, but also remotes and sensors)
+	 */
+	public List<Integer> getMembers() {
+		return members;
+	}
+
+	public JSONObject getJsonObject() {
+		return jsonObject;
+	}
+
+	public boolean isOn() {
+		return on;
+	}
+
+	public void setOn(boolean on) {
+		sendCommandAndWait(onCommand(on));
+		this.on = on;
+	}
+
+	public TradfriFuture<CoapResponse> setOnAsync(boolean on) {
+		this.on = on;
+		return sendCommand(onCommand(on));
+	}
+
+	public int getIntensity() {
+		return intensity;
+	}
+
+	public void setIntensity(int intensity) {
+		sendCommandAndWait(intensityCommand(intensity));
+		this.intensity = intensity;
+	}
+
+	public TradfriFuture<CoapResponse> setIntensityAsync(int intensity) {
+		this.intensity = intensity;
+		return sendCommand(intensityCommand(intensity));
+	}
+
+	public void setColor(String color) {
+		sendCommandAndWait(colorCommand(color));
+	}
+
+	public TradfriFuture<CoapResponse> setColorAsync(String color) {
+		return sendCommand(colorCommand(color));
+	}
+
+	private static TradfriCommand onCommand(boolean on) {
+		return new TradfriCommand().set(TradfriConstants.ONOFF, (on) ? 1 : 0);
+	}
+
+	private static TradfriCommand intensityCommand(int intensity) {
+		return new TradfriCommand()
+				.set(TradfriConstants.DIMMER, intensity)
+				.set(TradfriConstants.TRANSITION_TIME, 5);
+	}
+
+	private static TradfriCommand colorCommand(String color) {
+		return new TradfriCommand()
+				.set(TradfriConstants.COLOR, color)
+				.set(TradfriConstants.TRANSITION_TIME, 5);
+	}
+
+	public void update(final JSONObject json) throws JSONException {
+		if (json != null) {
+			jsonObject = json;
+			final List<TradfriAttributeChange> changes = new ArrayList<TradfriAttributeChange>();
+			boolean updateListeners = false;
+
+			final String new_name = json.getString(TradfriConstants.NAME);
+			if (name == null || !name.equals(new_name)) {
+				updateListeners = true;
+				changed(changes, TradfriConstants.NAME, name, new_name);
+			}
+			name = new_name;
+
+			final boolean new_on = json.optInt(TradfriConstants.ONOFF) != 0;
+			final int new_intensity = json.optInt(TradfriConstants.DIMMER);
+			if (on != new_on) {
+				updateListeners = true;
+				changed(changes, TradfriConstants.ONOFF, on, new_on);
+			}
+			if (intensity != new_intensity) {
+				updateListeners = true;
+				changed(changes, TradfriConstants.DIMMER, intensity, new_intensity);
+			}
+			on = new_on;
+			intensity = new_intensity;
+			sceneId = json.optInt(TradfriConstants.SCENE_ID);
+
+			final List<Integer> new_members = new ArrayList<Integer>();
+			final JSONObject link = json.optJSONObject(TradfriConstants.HS_ACCESSORY_LINK);
+			if (link != null && link.has(TradfriConstants.HS_LINK)) {
+				final JSONArray ids = link.getJSONObject(TradfriConstants.HS_LINK).getJSONArray(TradfriConstants.INSTANCE_ID);
+				for (int i = 0; i < ids.length(); i++) {
+					new_members.add(ids.getInt(i));
+				}
+			}
+			if (!members.equals(new_members))
+				updateListeners = true;
+			members = Collections.unmodifiableList(new_members);
+
+			if (updateListeners) {
+				setTimestamp(System.currentTimeMillis());
+
+				// Notify all listeners
+				fire(new TradfriEvent<TradfriGroupListener>() {
+					@Override
+					public void deliver(final TradfriGroupListener listener) {
+						listener.groupStateChanged(TradfriGroupPacket.this);
+					}
+				});
+			}
+			fireChanges(changes);
+		}
+	}
+
+	public String toString() {
+		return "[GROUP " + getId() + "]\ton:" + on + "\tdim:" + intensity + "\tmembers:" + members + "\tname: " + getName();
+	}
+
+}
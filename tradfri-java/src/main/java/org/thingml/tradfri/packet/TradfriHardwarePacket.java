@@ -1,6 +1,5 @@
 package org.thingml.tradfri.packet;
 
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -9,20 +8,18 @@ import org.slf4j.LoggerFactory;
 import org.eclipse.californium.core.CoapResponse;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.thingml.tradfri.TradfriAttributeChange;
 import org.thingml.tradfri.TradfriConstants;
+import org.thingml.tradfri.TradfriFuture;
 import org.thingml.tradfri.TradfriGateway;
 
-public abstract class TradfriHardwarePacket<T> extends TradfriPacket {
+public abstract class TradfriHardwarePacket<T> extends TradfriResourcePacket<T> {
 
 	/**
 	 * Logger to be used for all console outputs, errors and exceptions
 	 */
 	private static final Logger log = LoggerFactory.getLogger(TradfriHardwarePacket.class);
 
-	protected final List<T> listeners = new ArrayList<T>();
-
-	private TradfriGateway gateway;
-	
 	private String manufacturer;
 	private String type;
 	private String firmware;
@@ -32,49 +29,43 @@ public abstract class TradfriHardwarePacket<T> extends TradfriPacket {
 	private Date dateLastSeen;
 
 	// Immutable information
-	private int id;
 	private String name;
 
 	private JSONObject jsonObject;
 
 	public TradfriHardwarePacket(final String packetType, final int id, final TradfriGateway gateway) {
-		super(packetType);
-		
-		this.id = id;
-		this.gateway = gateway;
+		super(packetType, id, gateway);
 	}
 
 	public TradfriHardwarePacket(final String packetType, final int id, final TradfriGateway gateway, final CoapResponse response) {
-		super(packetType);
-		
-		this.id = id;
-		this.gateway = gateway;
+		super(packetType, id, gateway);
 		
 		if (response != null) {
 			parseResponseBase(response);
 		}
 	}
 
-	public abstract void update() throws JSONException;
-
-	public void addListener(final T l) {
-		listeners.add(l);
-	}
-
-	public void removeListener(final T l) {
-		listeners.remove(l);
+	public TradfriHardwarePacket(final String packetType, final int id, final TradfriGateway gateway, final JSONObject json) {
+		super(packetType, id, gateway);
+		
+		if (json != null) {
+			parseBase(json);
+		}
 	}
 
-	public void clearListeners() {
-		listeners.clear();
-	}
+	/**
+	 * Applies the decoded descriptor of the device: base information and type-specific state are
+	 * read from the same JSON object, so each payload is parsed only once
+	 */
+	public abstract void update(final JSONObject json) throws JSONException;
 
-	protected TradfriGateway getGateway() {
-		return gateway;
-	}
+	/**
+	 * Whether the gateway reports the device as reachable
+	 */
+	public abstract boolean isOnline();
 
-	public int getId() {
-		return id;
+	public String getPath() {
+		return TradfriConstants.DEVICES + "/" + getId();
 	}
 
 	public String getName() {
@@ -106,28 +97,47 @@ public abstract class TradfriHardwarePacket<T> extends TradfriPacket {
 	}
 
 	public void sendJSONPayload(String json) {
-		gateway.set(TradfriConstants.DEVICES + "/" + this.getId(), json);
+		getGateway().set(getPath(), json);
+	}
+
+	public TradfriFuture<CoapResponse> sendJSONPayloadAsync(String json) {
+		if (json == null)
+			return TradfriFuture.failed(new IllegalArgumentException("No payload to send to device " + getId()));
+		return getGateway().setAsync(getPath(), json);
 	}
 
 	protected boolean parseResponseBase(final CoapResponse response) {
+		try {
+			return parseBase(parse(response));
+		} catch (JSONException e) {
+			log.error("Cannot update device info: error parsing the response from the gateway", e);
+			return false;
+		}
+	}
+
+	protected boolean parseBase(final JSONObject json) {
+		return parseBase(json, null);
+	}
+
+	protected boolean parseBase(final JSONObject json, final List<TradfriAttributeChange> changes) {
 		boolean updateListeners = false;
 		
-		log.debug(response.getResponseText());
-		
 		try {
-			JSONObject json = new JSONObject(response.getResponseText());
 			jsonObject = json;
 			String new_name = json.getString(TradfriConstants.NAME);
-			if (name == null || !name.equals(new_name))
+			if (name == null || !name.equals(new_name)) {
 				updateListeners = true;
+				changed(changes, TradfriConstants.NAME, name, new_name);
+			}
 			name = new_name;
 
 			dateInstalled = new Date(json.getLong(TradfriConstants.DATE_INSTALLED) * 1000);
 			dateLastSeen = new Date(json.getLong(TradfriConstants.DATE_LAST_SEEN) * 1000);
 
-			manufacturer = json.getJSONObject("3").getString("0");
-			type = json.getJSONObject("3").getString("1");
-			firmware = json.getJSONObject("3").getString("3");
+			final JSONObject info = json.getJSONObject("3");
+			manufacturer = info.getString("0");
+			type = info.getString("1");
+			firmware = info.getString("3");
 		} catch (JSONException e) {
 			log.error("Cannot update device info: error parsing the response from the gateway", e);
 		}
@@ -1,12 +1,18 @@
 package org.thingml.tradfri.packet;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.eclipse.californium.core.CoapResponse;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.thingml.tradfri.TradfriAttributeChange;
+import org.thingml.tradfri.TradfriCommand;
 import org.thingml.tradfri.TradfriConstants;
+import org.thingml.tradfri.TradfriEvent;
+import org.thingml.tradfri.TradfriFuture;
 import org.thingml.tradfri.TradfriGateway;
 import org.thingml.tradfri.listener.TradfriLightBulbListener;
 
@@ -33,6 +39,10 @@ public class TradfriLightBulbPacket extends TradfriHardwarePacket<TradfriLightBu
 		super(PACKET_TYPE_LIGHT_BULB, id, gateway, response);
 	}
 
+	public TradfriLightBulbPacket(final int id, final TradfriGateway gateway, final JSONObject json) {
+		super(PACKET_TYPE_LIGHT_BULB, id, gateway, json);
+	}
+
 	public boolean isOnline() {
 		return online;
 	}
@@ -42,42 +52,27 @@ public class TradfriLightBulbPacket extends TradfriHardwarePacket<TradfriLightBu
 	}
 
 	public void setOn(boolean on) {
-		try {
-			JSONObject json = new JSONObject();
-			JSONObject settings = new JSONObject();
-			JSONArray array = new JSONArray();
-			array.put(settings);
-			json.put(TradfriConstants.LIGHT, array);
-			settings.put(TradfriConstants.ONOFF, (on) ? 1 : 0);
-			String payload = json.toString();
-			getGateway().set(TradfriConstants.DEVICES + "/" + this.getId(), payload);
-
-		} catch (JSONException ex) {
-			log.error("Error", ex);
-		}
+		sendCommandAndWait(onCommand(on));
 		this.on = on;
 	}
 
+	public TradfriFuture<CoapResponse> setOnAsync(boolean on) {
+		this.on = on;
+		return sendCommand(onCommand(on));
+	}
+
 	public int getIntensity() {
 		return intensity;
 	}
 
 	public void setIntensity(int intensity) {
-		try {
-			JSONObject json = new JSONObject();
-			JSONObject settings = new JSONObject();
-			JSONArray array = new JSONArray();
-			array.put(settings);
-			json.put(TradfriConstants.LIGHT, array);
-			settings.put(TradfriConstants.DIMMER, intensity);
-			settings.put(TradfriConstants.TRANSITION_TIME, 5);
-			String payload = json.toString();
-			getGateway().set(TradfriConstants.DEVICES + "/" + this.getId(), payload);
-
-		} catch (JSONException ex) {
-			log.error("Error", ex);
-		}
+		sendCommandAndWait(intensityCommand(intensity));
+		this.intensity = intensity;
+	}
+
+	public TradfriFuture<CoapResponse> setIntensityAsync(int intensity) {
 		this.intensity = intensity;
+		return sendCommand(intensityCommand(intensity));
 	}
 
 	public String getColor() {
@@ -85,6 +80,41 @@ public class TradfriLightBulbPacket extends TradfriHardwarePacket<TradfriLightBu
 	}
 
 	public void setRGBColor(int r, int g, int b) {
+		sendCommandAndWait(rgbColorCommand(r, g, b));
+	}
+
+	public TradfriFuture<CoapResponse> setRGBColorAsync(int r, int g, int b) {
+		return sendCommand(rgbColorCommand(r, g, b));
+	}
+
+	public void setColor(String color) {
+		sendCommandAndWait(colorCommand(color));
+		this.color = color;
+	}
+
+	public TradfriFuture<CoapResponse> setColorAsync(String color) {
+		this.color = color;
+		return sendCommand(colorCommand(color));
+	}
+
+	/**
+	 * Starts a batch of changes which are sent to the bulb in a single PUT when committed
+	 */
+	public Batch batch() {
+		return new Batch();
+	}
+
+	private static TradfriCommand onCommand(boolean on) {
+		return new TradfriCommand(TradfriConstants.LIGHT).set(TradfriConstants.ONOFF, (on) ? 1 : 0);
+	}
+
+	private static TradfriCommand intensityCommand(int intensity) {
+		return new TradfriCommand(TradfriConstants.LIGHT)
+				.set(TradfriConstants.DIMMER, intensity)
+				.set(TradfriConstants.TRANSITION_TIME, 5);
+	}
+
+	private static TradfriCommand rgbColorCommand(int r, int g, int b) {
 		double red = r;
 		double green = g;
 		double blue = b;
@@ -108,87 +138,142 @@ public class TradfriLightBulbPacket extends TradfriHardwarePacket<TradfriLightBu
 		int xyX = (int) (x * 65535 + 0.5);
 		int xyY = (int) (y * 65535 + 0.5);
 
-		try {
-			JSONObject json = new JSONObject();
-			JSONObject settings = new JSONObject();
-			JSONArray array = new JSONArray();
-			array.put(settings);
-			json.put(TradfriConstants.LIGHT, array);
-			settings.put(TradfriConstants.COLOR_X, xyX);
-			settings.put(TradfriConstants.COLOR_Y, xyY);
-			settings.put(TradfriConstants.TRANSITION_TIME, 5);
-			String payload = json.toString();
-			getGateway().set(TradfriConstants.DEVICES + "/" + this.getId(), payload);
-
-		} catch (JSONException ex) {
-			log.error("Error", ex);
-		}
+		return new TradfriCommand(TradfriConstants.LIGHT)
+				.set(TradfriConstants.COLOR_X, xyX)
+				.set(TradfriConstants.COLOR_Y, xyY)
+				.set(TradfriConstants.TRANSITION_TIME, 5);
+	}
 
+	private static TradfriCommand colorCommand(String color) {
+		return new TradfriCommand(TradfriConstants.LIGHT)
+				.set(TradfriConstants.COLOR, color)
+				.set(TradfriConstants.TRANSITION_TIME, 5);
 	}
 
-	public void setColor(String color) {
-		try {
-			JSONObject json = new JSONObject();
-			JSONObject settings = new JSONObject();
-			JSONArray array = new JSONArray();
-			array.put(settings);
-			json.put(TradfriConstants.LIGHT, array);
-			settings.put(TradfriConstants.COLOR, color);
-			settings.put(TradfriConstants.TRANSITION_TIME, 5);
-			String payload = json.toString();
-			getGateway().set(TradfriConstants.DEVICES + "/" + this.getId(), payload);
-
-		} catch (JSONException ex) {
-			log.error("Error", ex);
+	/**
+	 * Change buffer collecting ONOFF, DIMMER, COLOR/COLOR_X/COLOR_Y and TRANSITION_TIME changes
+	 * of the bulb, flushed as one LIGHT payload by {@link #commit()} or {@link #commitAsync()}.
+	 * A transition time set on the batch applies to all its changes.
+	 */
+	public class Batch {
+
+		private final TradfriCommand command = new TradfriCommand(TradfriConstants.LIGHT);
+
+		private Integer transitionTime = null;
+
+		private Boolean newOn = null;
+
+		private Integer newIntensity = null;
+
+		private String newColor = null;
+
+		private Batch() {
 		}
-		this.color = color;
+
+		public Batch setOn(boolean on) {
+			command.merge(onCommand(on));
+			newOn = on;
+			return this;
+		}
+
+		public Batch setIntensity(int intensity) {
+			command.merge(intensityCommand(intensity));
+			newIntensity = intensity;
+			return this;
+		}
+
+		public Batch setColor(String color) {
+			command.merge(colorCommand(color));
+			newColor = color;
+			return this;
+		}
+
+		public Batch setRGBColor(int r, int g, int b) {
+			command.merge(rgbColorCommand(r, g, b));
+			// The xy color replaces a hex color set before, which must not become the local state
+			newColor = null;
+			return this;
+		}
+
+		public Batch setTransitionTime(int transitionTime) {
+			this.transitionTime = transitionTime;
+			return this;
+		}
+
+		public void commit() {
+			sendCommandAndWait(prepare());
+		}
+
+		public TradfriFuture<CoapResponse> commitAsync() {
+			return sendCommand(prepare());
+		}
+
+		private TradfriCommand prepare() {
+			if (transitionTime != null)
+				command.set(TradfriConstants.TRANSITION_TIME, transitionTime);
+			if (newOn != null)
+				on = newOn;
+			if (newIntensity != null)
+				intensity = newIntensity;
+			if (newColor != null)
+				color = newColor;
+			return command;
+		}
+
 	}
 
 	@Override
-	public void update() throws JSONException {
-		final CoapResponse response = getGateway().get(TradfriConstants.DEVICES + "/" + getId());
-		if (response != null) {
-			boolean updateListeners = super.parseResponseBase(response);
-			
-			final JSONObject json = new JSONObject(response.getResponseText());
+	public void update(final JSONObject json) throws JSONException {
+		if (json != null) {
+			final List<TradfriAttributeChange> changes = new ArrayList<TradfriAttributeChange>();
+			boolean updateListeners = parseBase(json, changes);
+
+			final JSONObject light = json.getJSONArray(TradfriConstants.LIGHT).getJSONObject(0);
+			final boolean hasState = light.has(TradfriConstants.ONOFF) && light.has(TradfriConstants.DIMMER);
 
-			final boolean new_online = json.getInt(TradfriConstants.DEVICE_REACHABLE) != 0;
-			if (new_online != online)
+			// A light without state is unreachable whatever the gateway says, reported as a single change
+			final boolean new_online = hasState && json.getInt(TradfriConstants.DEVICE_REACHABLE) != 0;
+			if (new_online != online) {
 				updateListeners = true;
+				changed(changes, TradfriConstants.DEVICE_REACHABLE, online, new_online);
+			}
 			online = new_online;
 
-			final JSONObject light = json.getJSONArray(TradfriConstants.LIGHT).getJSONObject(0);
-			if (light.has(TradfriConstants.ONOFF) && light.has(TradfriConstants.DIMMER)) {
+			if (hasState) {
 				final boolean new_on = (light.getInt(TradfriConstants.ONOFF) != 0);
 				final int new_intensity = light.getInt(TradfriConstants.DIMMER);
-				if (on != new_on)
+				if (on != new_on) {
 					updateListeners = true;
-				if (intensity != new_intensity)
+					changed(changes, TradfriConstants.ONOFF, on, new_on);
+				}
+				if (intensity != new_intensity) {
 					updateListeners = true;
+					changed(changes, TradfriConstants.DIMMER, intensity, new_intensity);
+				}
 				on = new_on;
 				intensity = new_intensity;
-			} else {
-				if (online)
-					updateListeners = true;
-				online = false;
 			}
 			if (light.has(TradfriConstants.COLOR)) {
 				String new_color = light.getString(TradfriConstants.COLOR);
-				if (color == null || !color.equals(new_color))
+				if (color == null || !color.equals(new_color)) {
 					updateListeners = true;
+					changed(changes, TradfriConstants.COLOR, color, new_color);
+				}
 				color = new_color;
 			}
 			
 			if (updateListeners) {
+				setTimestamp(System.currentTimeMillis());
+
 				// Notify all listeners
-				for (TradfriLightBulbListener listener : listeners) {
-					try {
-						listener.bulbStateChanged(this);
-					} catch (Exception ex) {
-						//
+				fire(new TradfriEvent<TradfriLightBulbListener>() {
+					@Override
+					public void deliver(final TradfriLightBulbListener listener) {
+						listener.bulbStateChanged(TradfriLightBulbPacket.this);
 					}
-				}
+				});
 			}
+			fireChanges(changes);
 		}
 	}
 
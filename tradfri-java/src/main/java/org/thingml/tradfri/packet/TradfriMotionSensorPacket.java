@@ -1,8 +1,13 @@
 package org.thingml.tradfri.packet;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.thingml.tradfri.TradfriAttributeChange;
 import org.thingml.tradfri.TradfriConstants;
+import org.thingml.tradfri.TradfriEvent;
 import org.thingml.tradfri.TradfriGateway;
 import org.thingml.tradfri.listener.TradfriMotionSensorListener;
 import org.eclipse.californium.core.CoapResponse;
@@ -27,33 +32,39 @@ public class TradfriMotionSensorPacket extends TradfriHardwarePacket<TradfriMoti
 		super(PACKET_TYPE_MOTION_SENSOR, id, gateway, response);
 	}
 
+	public TradfriMotionSensorPacket(final int id, final TradfriGateway gateway, final JSONObject json) {
+		super(PACKET_TYPE_MOTION_SENSOR, id, gateway, json);
+	}
+
 	public boolean isOnline() {
 		return online;
 	}
 
 	@Override
-	public void update() throws JSONException {
-		CoapResponse response = getGateway().get(TradfriConstants.DEVICES + "/" + getId());
-		if (response != null) {
-			boolean updateListeners = super.parseResponseBase(response);
-			
-			final JSONObject json = new JSONObject(response.getResponseText());
+	public void update(final JSONObject json) throws JSONException {
+		if (json != null) {
+			final List<TradfriAttributeChange> changes = new ArrayList<TradfriAttributeChange>();
+			boolean updateListeners = parseBase(json, changes);
 
 			final boolean new_online = json.getInt(TradfriConstants.DEVICE_REACHABLE) != 0;
-			if (new_online != online)
+			if (new_online != online) {
 				updateListeners = true;
+				changed(changes, TradfriConstants.DEVICE_REACHABLE, online, new_online);
+			}
 			online = new_online;
 			
 			if (updateListeners) {
+				setTimestamp(System.currentTimeMillis());
+
 				// Notify all listeners
-				for (TradfriMotionSensorListener listener : listeners) {
-					try {
-						listener.motionSensorStateChanged(this);
-					} catch (Exception ex) {
-						//
+				fire(new TradfriEvent<TradfriMotionSensorListener>() {
+					@Override
+					public void deliver(final TradfriMotionSensorListener listener) {
+						listener.motionSensorStateChanged(TradfriMotionSensorPacket.this);
 					}
-				}
+				});
 			}
+			fireChanges(changes);
 		}
 	}
 
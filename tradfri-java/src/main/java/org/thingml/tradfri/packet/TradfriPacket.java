@@ -1,9 +1,22 @@
 package org.thingml.tradfri.packet;
 
+import org.eclipse.californium.core.CoapResponse;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 public abstract class TradfriPacket {
 
+	/**
+	 * Logger to be used for all console outputs, errors and exceptions
+	 */
+	private static final Logger log = LoggerFactory.getLogger(TradfriPacket.class);
+
 	protected static final String PACKET_TYPE_CONTROL_OUTLET = "controlOutlet";
 
+	protected static final String PACKET_TYPE_GROUP = "group";
+
 	protected static final String PACKET_TYPE_LIGHT_BULB = "lightBulb";
 
 	protected static final String PACKET_TYPE_MOTION_SENSOR = "motionSensor";
@@ -34,4 +47,14 @@ public abstract class TradfriPacket {
 		this.timestamp = timestamp;
 	}
 
+	/**
+	 * Decodes the payload of a response of the gateway, once for the whole update of a packet
+	 */
+	public static JSONObject parse(final CoapResponse response) throws JSONException {
+		final String text = response.getResponseText();
+		if (log.isDebugEnabled())
+			log.debug(text);
+		return new JSONObject(text);
+	}
+
 }
@@ -1,9 +1,14 @@
 package org.thingml.tradfri.packet;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.eclipse.californium.core.CoapResponse;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.thingml.tradfri.TradfriAttributeChange;
 import org.thingml.tradfri.TradfriConstants;
+import org.thingml.tradfri.TradfriEvent;
 import org.thingml.tradfri.TradfriGateway;
 import org.thingml.tradfri.listener.TradfriRemoteListener;
 
@@ -20,33 +25,39 @@ public class TradfriRemotePacket extends TradfriHardwarePacket<TradfriRemoteList
 		super(PACKET_TYPE_REMOTE, id, gateway, response);
 	}
 
+	public TradfriRemotePacket(final int id, final TradfriGateway gateway, final JSONObject json) {
+		super(PACKET_TYPE_REMOTE, id, gateway, json);
+	}
+
 	public boolean isOnline() {
 		return online;
 	}
 
 	@Override
-	public void update() throws JSONException {
-		CoapResponse response = getGateway().get(TradfriConstants.DEVICES + "/" + getId());
-		if (response != null) {
-			boolean updateListeners = super.parseResponseBase(response);
-			
-			final JSONObject json = new JSONObject(response.getResponseText());
+	public void update(final JSONObject json) throws JSONException {
+		if (json != null) {
+			final List<TradfriAttributeChange> changes = new ArrayList<TradfriAttributeChange>();
+			boolean updateListeners = parseBase(json, changes);
 
-			boolean new_online = json.getInt(TradfriConstants.DEVICE_REACHABLE) != 0;
-			if (new_online != online)
+			final boolean new_online = json.getInt(TradfriConstants.DEVICE_REACHABLE) != 0;
+			if (new_online != online) {
 				updateListeners = true;
+				changed(changes, TradfriConstants.DEVICE_REACHABLE, online, new_online);
+			}
 			online = new_online;
 			
 			if (updateListeners) {
+				setTimestamp(System.currentTimeMillis());
+
 				// Notify all listeners
-				for (TradfriRemoteListener listener : listeners) {
-					try {
-						listener.remoteStateChanged(this);
-					} catch (Exception ex) {
-						//
+				fire(new TradfriEvent<TradfriRemoteListener>() {
+					@Override
+					public void deliver(final TradfriRemoteListener listener) {
+						listener.remoteStateChanged(TradfriRemotePacket.this);
 					}
-				}
+				});
 			}
+			fireChanges(changes);
 		}
 	}
 
@@ -0,0 +1,176 @@
+package org.thingml.tradfri.packet;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.californium.core.CoapResponse;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.thingml.tradfri.TradfriAttributeChange;
+import org.thingml.tradfri.TradfriCommand;
+import org.thingml.tradfri.TradfriConstants;
+import org.thingml.tradfri.TradfriEvent;
+import org.thingml.tradfri.TradfriEventDispatcher;
+import org.thingml.tradfri.TradfriFuture;
+import org.thingml.tradfri.TradfriGateway;
+import org.thingml.tradfri.listener.TradfriAttributeListener;
+
+/**
+ * Resource of the gateway with an instance id (a device or a group): listeners notified through the
+ * dispatcher of the gateway, attribute listeners, updates and commands sent through the command slot
+ * of the resource.
+ */
+public abstract class TradfriResourcePacket<T> extends TradfriPacket {
+
+	protected final List<T> listeners = new CopyOnWriteArrayList<T>();
+
+	protected final List<TradfriAttributeListener> attributeListeners = new CopyOnWriteArrayList<TradfriAttributeListener>();
+
+	/**
+	 * Attributes each attribute listener subscribed to, empty for all attributes
+	 */
+	private final Map<TradfriAttributeListener, Set<String>> attributeFilters = new ConcurrentHashMap<TradfriAttributeListener, Set<String>>();
+
+	private final TradfriGateway gateway;
+
+	// Immutable information
+	private final int id;
+
+	public TradfriResourcePacket(final String packetType, final int id, final TradfriGateway gateway) {
+		super(packetType);
+
+		this.id = id;
+		this.gateway = gateway;
+	}
+
+	/**
+	 * Fetches the current state of the resource from the gateway and applies it
+	 */
+	public void update() throws JSONException {
+		final CoapResponse response = gateway.get(getPath());
+		if (response != null) {
+			update(response);
+		}
+	}
+
+	/**
+	 * Applies a response received from the gateway for this resource (either polled or pushed by an observe relation)
+	 */
+	public void update(final CoapResponse response) throws JSONException {
+		if (response != null) {
+			update(parse(response));
+		}
+	}
+
+	/**
+	 * Applies the decoded descriptor of the resource, parsed only once for the whole update
+	 */
+	public abstract void update(final JSONObject json) throws JSONException;
+
+	/**
+	 * Path of the resource on the gateway (e.g. "15001/65537")
+	 */
+	public abstract String getPath();
+
+	public void addListener(final T l) {
+		listeners.add(l);
+	}
+
+	public void removeListener(final T l) {
+		listeners.remove(l);
+	}
+
+	public void clearListeners() {
+		listeners.clear();
+	}
+
+	/**
+	 * Registers a listener for the changes of the given attributes (e.g. {@link TradfriConstants#ONOFF}),
+	 * or of all the attributes if none is given
+	 */
+	public void addAttributeListener(final TradfriAttributeListener l, final String... attributes) {
+		attributeFilters.put(l, new HashSet<String>(Arrays.asList(attributes)));
+		if (!attributeListeners.contains(l))
+			attributeListeners.add(l);
+	}
+
+	public void removeAttributeListener(final TradfriAttributeListener l) {
+		attributeListeners.remove(l);
+		attributeFilters.remove(l);
+	}
+
+	/**
+	 * Notifies the listeners through the dispatcher of the gateway, in order with the other events of the resource
+	 */
+	protected void fire(final TradfriEvent<T> event) {
+		fire(listeners, event);
+	}
+
+	private <L> void fire(final List<L> listeners, final TradfriEvent<L> event) {
+		if (gateway == null)
+			TradfriEventDispatcher.deliver(listeners, event);
+		else
+			gateway.getDispatcher().dispatch(id, listeners, event);
+	}
+
+	/**
+	 * Records the change of an attribute during an update, if some listener may be interested in it
+	 */
+	protected void changed(final List<TradfriAttributeChange> changes, final String attribute, final Object oldValue, final Object newValue) {
+		if (changes != null && !attributeListeners.isEmpty())
+			changes.add(new TradfriAttributeChange(this, attribute, oldValue, newValue));
+	}
+
+	/**
+	 * Notifies the attribute listeners of the changes recorded during an update
+	 */
+	protected void fireChanges(final List<TradfriAttributeChange> changes) {
+		if (changes.isEmpty())
+			return;
+		fire(attributeListeners, new TradfriEvent<TradfriAttributeListener>() {
+			@Override
+			public void deliver(final TradfriAttributeListener listener) {
+				final Set<String> attributes = attributeFilters.get(listener);
+				for (TradfriAttributeChange change : changes) {
+					if (attributes == null || attributes.isEmpty() || attributes.contains(change.getAttribute()))
+						listener.attributeChanged(change);
+				}
+			}
+		});
+	}
+
+	protected TradfriGateway getGateway() {
+		return gateway;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Sends a command through the command slot of the resource, see {@link TradfriGateway#sendCommand(String, TradfriCommand)}
+	 */
+	protected TradfriFuture<CoapResponse> sendCommand(final TradfriCommand command) {
+		return gateway.sendCommand(getPath(), command);
+	}
+
+	/**
+	 * Sends a command and waits until the gateway has answered it (or the command it was merged into)
+	 */
+	protected void sendCommandAndWait(final TradfriCommand command) {
+		try {
+			sendCommand(command).get();
+		} catch (ExecutionException ex) {
+			// Already reported by the gateway
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+package org.thingml.tradfri;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.thingml.tradfri.listener.TradfriAttributeListener;
+import org.thingml.tradfri.packet.TradfriLightBulbPacket;
+import org.thingml.tradfri.packet.TradfriRemotePacket;
+
+public class TradfriAttributeChangeTest {
+
+	private final List<TradfriAttributeChange> changes = new ArrayList<TradfriAttributeChange>();
+
+	private final TradfriAttributeListener recorder = new TradfriAttributeListener() {
+		@Override
+		public void attributeChanged(final TradfriAttributeChange change) {
+			changes.add(change);
+		}
+	};
+
+	@Test
+	public void changedAttributesAreReported() {
+		final TradfriLightBulbPacket bulb = TradfriTestDevices.bulb(65537);
+		bulb.addAttributeListener(recorder);
+		bulb.update(TradfriTestDevices.bulbJson(65537, true, true, 128));
+		assertEquals(2, changes.size());
+		assertEquals(TradfriConstants.ONOFF, changes.get(0).getAttribute());
+		assertEquals(Boolean.TRUE, changes.get(0).getNewValue());
+		assertEquals(TradfriConstants.DIMMER, changes.get(1).getAttribute());
+		assertEquals(128, changes.get(1).getNewValue());
+	}
+
+	@Test
+	public void listenerOnlyGetsTheAttributesItSubscribedTo() {
+		final TradfriLightBulbPacket bulb = TradfriTestDevices.bulb(65537);
+		bulb.addAttributeListener(recorder, TradfriConstants.DIMMER);
+		bulb.update(TradfriTestDevices.bulbJson(65537, true, true, 128));
+		assertEquals(1, changes.size());
+		assertEquals(TradfriConstants.DIMMER, changes.get(0).getAttribute());
+	}
+
+	@Test
+	public void reachableLightWithoutStateIsReportedUnreachableOnce() {
+		final TradfriLightBulbPacket bulb = TradfriTestDevices.bulb(65537);
+		bulb.addAttributeListener(recorder);
+		final JSONObject json = TradfriTestDevices.bulbJson(65537, true, false, 0);
+		final JSONObject light = json.getJSONArray(TradfriConstants.LIGHT).getJSONObject(0);
+		light.remove(TradfriConstants.ONOFF);
+		light.remove(TradfriConstants.DIMMER);
+		bulb.update(json);
+		assertFalse(bulb.isOnline());
+		assertEquals(1, changes.size());
+		assertEquals(TradfriConstants.DEVICE_REACHABLE, changes.get(0).getAttribute());
+		assertEquals(Boolean.TRUE, changes.get(0).getOldValue());
+		assertEquals(Boolean.FALSE, changes.get(0).getNewValue());
+
+		// Still without state: no change at all
+		changes.clear();
+		bulb.update(json);
+		assertEquals(0, changes.size());
+	}
+
+	@Test
+	public void unreachableLightWithoutStateIsNotReported() {
+		final TradfriLightBulbPacket bulb = new TradfriLightBulbPacket(65537, null);
+		bulb.addAttributeListener(recorder, TradfriConstants.DEVICE_REACHABLE);
+		final JSONObject json = TradfriTestDevices.bulbJson(65537, true, false, 0);
+		json.getJSONArray(TradfriConstants.LIGHT).getJSONObject(0).remove(TradfriConstants.ONOFF);
+		bulb.update(json);
+		assertEquals(0, changes.size());
+	}
+
+	@Test
+	public void remoteReachabilityIsReported() {
+		final TradfriRemotePacket remote = new TradfriRemotePacket(65540, null);
+		remote.addAttributeListener(recorder, TradfriConstants.DEVICE_REACHABLE);
+		final JSONObject json = TradfriTestDevices.bulbJson(65540, true, false, 0);
+		json.remove(TradfriConstants.LIGHT);
+		remote.update(json);
+		assertEquals(1, changes.size());
+		assertEquals(Boolean.TRUE, changes.get(0).getNewValue());
+
+		remote.update(json.put(TradfriConstants.DEVICE_REACHABLE, 0));
+		assertEquals(2, changes.size());
+		assertEquals(Boolean.FALSE, changes.get(1).getNewValue());
+	}
+
+}
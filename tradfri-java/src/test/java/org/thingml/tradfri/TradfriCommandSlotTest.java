@@ -0,0 +1,126 @@
+package org.thingml.tradfri;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.junit.Before;
+import org.junit.Test;
+import org.thingml.tradfri.packet.TradfriControlOutletPacket;
+
+public class TradfriCommandSlotTest {
+
+	private static final String PATH = TradfriConstants.DEVICES + "/65537";
+
+	private final List<String> sent = new ArrayList<String>();
+
+	private final List<TradfriFuture<CoapResponse>> responses = new ArrayList<TradfriFuture<CoapResponse>>();
+
+	private TradfriGateway gateway;
+
+	private TradfriCommandSlot slot;
+
+	@Before
+	public void setUp() {
+		// PUTs are recorded and answered by the test
+		gateway = new TradfriGateway(NetworkConfig.createStandardWithoutFile()) {
+			@Override
+			public TradfriFuture<CoapResponse> setAsync(final String path, final byte[] payload) {
+				sent.add(new String(payload, Charset.forName("UTF-8")));
+				final TradfriFuture<CoapResponse> response = new TradfriFuture<CoapResponse>();
+				responses.add(response);
+				return response;
+			}
+		};
+		slot = new TradfriCommandSlot(gateway, PATH);
+	}
+
+	@Test
+	public void firstCommandIsSentAtOnce() {
+		slot.submit(on(true));
+		assertEquals(1, sent.size());
+		assertFalse(slot.hasPending());
+	}
+
+	@Test
+	public void commandsSubmittedWhileInFlightAreMergedIntoOnePut() {
+		final TradfriFuture<CoapResponse> first = slot.submit(on(true));
+		final TradfriFuture<CoapResponse> second = slot.submit(dim(100));
+		final TradfriFuture<CoapResponse> third = slot.submit(dim(200).set(TradfriConstants.ONOFF, 0));
+		assertEquals(1, sent.size());
+		assertTrue(slot.hasPending());
+		assertNotSame(first, second);
+		assertSame(second, third);
+		assertEquals(1, gateway.getMetrics().getCommandsCoalesced());
+
+		responses.get(0).complete(null);
+		assertTrue(first.isDone());
+		assertFalse(second.isDone());
+		assertEquals(2, sent.size());
+		// The newer value of an attribute wins
+		assertEquals("{\"3311\":[{\"5851\":200,\"5712\":5,\"5850\":0}]}", sent.get(1));
+
+		responses.get(1).complete(null);
+		assertTrue(third.isDone());
+		assertFalse(slot.hasPending());
+	}
+
+	@Test
+	public void mergedCommandsAreNotAltered() {
+		slot.submit(on(true));
+		final TradfriCommand pending = dim(100);
+		slot.submit(pending);
+		slot.submit(dim(200));
+		assertEquals(Integer.valueOf(100), pending.getSettings().get(TradfriConstants.DIMMER));
+	}
+
+	@Test
+	public void failureIsReportedToTheMergedCallersAndThePendingCommandIsStillSent() {
+		final TradfriFuture<CoapResponse> first = slot.submit(on(true));
+		final TradfriFuture<CoapResponse> second = slot.submit(dim(100));
+		responses.get(0).fail(new IllegalStateException());
+		assertTrue(first.isDone());
+		assertEquals(2, sent.size());
+		responses.get(1).fail(new IllegalStateException());
+		assertTrue(second.isDone());
+
+		// The slot is free again
+		slot.submit(on(false));
+		assertEquals(3, sent.size());
+	}
+
+	@Test
+	public void hexAndXyColorsReplaceEachOther() {
+		final TradfriCommand command = new TradfriCommand(TradfriConstants.LIGHT).set(TradfriConstants.COLOR, "f1e0b5");
+		command.merge(new TradfriCommand(TradfriConstants.LIGHT).set(TradfriConstants.COLOR_X, 30000).set(TradfriConstants.COLOR_Y, 26000));
+		assertFalse(command.getSettings().containsKey(TradfriConstants.COLOR));
+		command.merge(new TradfriCommand(TradfriConstants.LIGHT).set(TradfriConstants.COLOR, "efd275"));
+		assertFalse(command.getSettings().containsKey(TradfriConstants.COLOR_X));
+		assertFalse(command.getSettings().containsKey(TradfriConstants.COLOR_Y));
+	}
+
+	@Test
+	public void outletIsSwitchedThroughItsControlInstance() {
+		new TradfriControlOutletPacket(65540, gateway).setOnAsync(true);
+		assertEquals("{\"3312\":[{\"5850\":1}]}", sent.get(0));
+	}
+
+	private static TradfriCommand on(final boolean on) {
+		return new TradfriCommand(TradfriConstants.LIGHT).set(TradfriConstants.ONOFF, on ? 1 : 0);
+	}
+
+	private static TradfriCommand dim(final int intensity) {
+		return new TradfriCommand(TradfriConstants.LIGHT)
+				.set(TradfriConstants.DIMMER, intensity)
+				.set(TradfriConstants.TRANSITION_TIME, 5);
+	}
+
+}
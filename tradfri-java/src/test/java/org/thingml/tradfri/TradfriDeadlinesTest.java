@@ -0,0 +1,49 @@
+package org.thingml.tradfri;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.Request;
+import org.junit.Test;
+
+public class TradfriDeadlinesTest {
+
+	@Test
+	public void expiredRequestIsFailedAndCancelled() throws Exception {
+		final Request request = new Request(Code.GET);
+		final TradfriFuture<String> future = TradfriDeadlines.expire(new TradfriFuture<String>(), 20, TimeUnit.MILLISECONDS, request);
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof TimeoutException);
+		}
+		assertTrue(request.isCanceled());
+	}
+
+	@Test
+	public void requestDoneInTimeIsKept() throws Exception {
+		final Request request = new Request(Code.GET);
+		final TradfriFuture<String> future = TradfriDeadlines.expire(new TradfriFuture<String>(), 50, TimeUnit.MILLISECONDS, request);
+		future.complete("response");
+		Thread.sleep(100);
+		assertEquals("response", future.get());
+		assertFalse(request.isCanceled());
+	}
+
+	@Test
+	public void doneFutureIsReturnedAsIs() throws Exception {
+		final TradfriFuture<String> done = TradfriFuture.completed("response");
+		assertEquals(done, TradfriDeadlines.expire(done, 1, TimeUnit.MILLISECONDS, null));
+		Thread.sleep(20);
+		assertEquals("response", done.get());
+	}
+
+}
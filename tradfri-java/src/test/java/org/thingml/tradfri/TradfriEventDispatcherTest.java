@@ -0,0 +1,122 @@
+package org.thingml.tradfri;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TradfriEventDispatcherTest {
+
+	private final TradfriEventDispatcher dispatcher = new TradfriEventDispatcher(1, 2);
+
+	@After
+	public void tearDown() {
+		dispatcher.shutdown();
+	}
+
+	@Test
+	public void eventsOfAKeyAreDeliveredInOrder() throws Exception {
+		final List<Integer> received = new CopyOnWriteArrayList<Integer>();
+		final CountDownLatch done = new CountDownLatch(1);
+		final TradfriEventDispatcher large = new TradfriEventDispatcher(4, 1024);
+		try {
+			for (int i = 0; i < 100; i++) {
+				final int n = i;
+				large.dispatch(65537, Collections.singletonList(received), new TradfriEvent<List<Integer>>() {
+					@Override
+					public void deliver(final List<Integer> listener) {
+						listener.add(n);
+						if (n == 99)
+							done.countDown();
+					}
+				});
+			}
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+		} finally {
+			large.shutdown();
+		}
+		for (int i = 0; i < 100; i++)
+			assertEquals(Integer.valueOf(i), received.get(i));
+	}
+
+	@Test(timeout = 5000)
+	public void fullQueueDropsInsteadOfBlocking() throws Exception {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<Object> listeners = Arrays.<Object>asList("slow listener");
+		dispatcher.dispatch(1, listeners, new TradfriEvent<Object>() {
+			@Override
+			public void deliver(final Object listener) {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+		final TradfriEvent<Object> event = new TradfriEvent<Object>() {
+			@Override
+			public void deliver(final Object listener) {
+				//
+			}
+		};
+		// Two fit in the queue, the others are dropped without blocking this thread
+		for (int i = 0; i < 5; i++)
+			dispatcher.dispatch(1, listeners, event);
+		assertEquals(3, dispatcher.getDropped());
+		release.countDown();
+	}
+
+	@Test(timeout = 5000)
+	public void gatewayEventsAreNeverDropped() throws Exception {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch delivered = new CountDownLatch(10);
+		final List<Object> listeners = Arrays.<Object>asList("slow listener");
+		dispatcher.dispatch(TradfriEventDispatcher.GATEWAY_KEY, listeners, new TradfriEvent<Object>() {
+			@Override
+			public void deliver(final Object listener) {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+		// Queued beyond the capacity of 2, and still without blocking this thread
+		for (int i = 0; i < 10; i++) {
+			dispatcher.dispatch(TradfriEventDispatcher.GATEWAY_KEY, listeners, new TradfriEvent<Object>() {
+				@Override
+				public void deliver(final Object listener) {
+					delivered.countDown();
+				}
+			});
+		}
+		assertEquals(10, dispatcher.getQueueDepth());
+		// The events of the devices are still bounded
+		dispatcher.dispatch(1, listeners, new TradfriEvent<Object>() {
+			@Override
+			public void deliver(final Object listener) {
+				//
+			}
+		});
+		assertEquals(1, dispatcher.getDropped());
+		release.countDown();
+		assertTrue(delivered.await(5, TimeUnit.SECONDS));
+	}
+
+}
@@ -0,0 +1,119 @@
+package org.thingml.tradfri;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+import org.thingml.tradfri.listener.TradfriFutureListener;
+
+public class TradfriFutureTest {
+
+	@Test
+	public void completesOnce() throws Exception {
+		final TradfriFuture<String> future = new TradfriFuture<String>();
+		assertFalse(future.isDone());
+		assertTrue(future.complete("a"));
+		assertFalse(future.complete("b"));
+		assertFalse(future.fail(new IllegalStateException()));
+		assertTrue(future.isDone());
+		assertEquals("a", future.get());
+	}
+
+	@Test
+	public void failureIsWrapped() throws Exception {
+		final IllegalStateException cause = new IllegalStateException();
+		try {
+			TradfriFuture.failed(cause).get();
+			fail();
+		} catch (ExecutionException ex) {
+			assertSame(cause, ex.getCause());
+		}
+	}
+
+	@Test(expected = CancellationException.class)
+	public void cancelledFutureThrowsCancellation() throws Exception {
+		final TradfriFuture<String> future = new TradfriFuture<String>();
+		assertTrue(future.cancel(false));
+		assertTrue(future.isCancelled());
+		future.get();
+	}
+
+	@Test(expected = TimeoutException.class)
+	public void getTimesOut() throws Exception {
+		new TradfriFuture<String>().get(10, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void listenersAreNotifiedOnCompletionOrAtOnce() {
+		final List<String> results = new ArrayList<String>();
+		final TradfriFuture<String> future = new TradfriFuture<String>();
+		future.addListener(recorder(results));
+		assertTrue(results.isEmpty());
+		future.complete("a");
+		assertEquals(Arrays.asList("a"), results);
+		future.addListener(recorder(results));
+		assertEquals(Arrays.asList("a", "a"), results);
+	}
+
+	@Test
+	public void allWaitsForEveryFuture() throws Exception {
+		final TradfriFuture<String> first = new TradfriFuture<String>();
+		final TradfriFuture<String> second = new TradfriFuture<String>();
+		final TradfriFuture<Void> all = TradfriFuture.all(Arrays.asList(first, second));
+		first.complete("a");
+		assertFalse(all.isDone());
+		second.complete("b");
+		assertTrue(all.isDone());
+		assertNull(all.get());
+	}
+
+	@Test
+	public void allFailsWithTheFirstFailure() throws Exception {
+		final TradfriFuture<String> first = new TradfriFuture<String>();
+		final TradfriFuture<String> second = new TradfriFuture<String>();
+		final TradfriFuture<Void> all = TradfriFuture.all(Arrays.asList(first, second));
+		final IllegalStateException cause = new IllegalStateException();
+		first.fail(cause);
+		assertTrue(all.isDone());
+		second.fail(new IllegalArgumentException());
+		try {
+			all.get();
+			fail();
+		} catch (ExecutionException ex) {
+			assertSame(cause, ex.getCause());
+		}
+	}
+
+	@Test
+	public void allOfNothingIsDone() {
+		assertTrue(TradfriFuture.all(Collections.<TradfriFuture<?>>emptyList()).isDone());
+	}
+
+	private static TradfriFutureListener<String> recorder(final List<String> results) {
+		return new TradfriFutureListener<String>() {
+			@Override
+			public void completed(final String result) {
+				results.add(result);
+			}
+
+			@Override
+			public void failed(final Throwable cause) {
+				results.add("failed");
+			}
+		};
+	}
+
+}
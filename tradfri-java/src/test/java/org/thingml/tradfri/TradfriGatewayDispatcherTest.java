@@ -0,0 +1,119 @@
+package org.thingml.tradfri;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.junit.Test;
+import org.thingml.tradfri.listener.TradfriGatewayListener;
+
+public class TradfriGatewayDispatcherTest {
+
+	@Test
+	public void gatewaysSharingADispatcherStartNoThreads() throws Exception {
+		final int before = eventThreads();
+		final TradfriEventDispatcher shared = new TradfriEventDispatcher(2, 16);
+		final List<TradfriGateway> gateways = new ArrayList<TradfriGateway>();
+		for (int i = 0; i < 10; i++) {
+			final TradfriGateway gateway = new TradfriGateway(NetworkConfig.createStandardWithoutFile());
+			gateway.setDispatcher(shared);
+			gateways.add(gateway);
+			assertSame(shared, gateway.getDispatcher());
+		}
+		assertEquals(before + 2, eventThreads());
+
+		// The shared dispatcher is not the gateways' to shut down
+		for (TradfriGateway gateway : gateways)
+			gateway.destroy();
+		assertEquals(before + 2, eventThreads());
+		shared.shutdown();
+		awaitEventThreads(before);
+	}
+
+	@Test
+	public void ownDispatcherIsShutDownByDestroy() throws Exception {
+		final int before = eventThreads();
+		final TradfriGateway gateway = new TradfriGateway(NetworkConfig.createStandardWithoutFile());
+		assertEquals(before, eventThreads());
+		final TradfriEventDispatcher own = gateway.getDispatcher();
+		assertEquals(before + TradfriEventDispatcher.DEFAULT_STRIPES, eventThreads());
+		gateway.destroy();
+		awaitEventThreads(before);
+
+		// Created again if the gateway is used afterwards
+		assertNotSame(own, gateway.getDispatcher());
+		gateway.destroy();
+		awaitEventThreads(before);
+	}
+
+	@Test
+	public void replacedOwnDispatcherIsShutDown() throws Exception {
+		final int before = eventThreads();
+		final TradfriGateway gateway = new TradfriGateway(NetworkConfig.createStandardWithoutFile());
+		gateway.getDispatcher();
+		final TradfriEventDispatcher shared = new TradfriEventDispatcher(1, 16);
+		gateway.setDispatcher(shared);
+		awaitEventThreads(before + 1);
+		shared.shutdown();
+		awaitEventThreads(before);
+	}
+
+	@Test
+	public void initializingEventSurvivesTheStart() throws Exception {
+		final TradfriGateway gateway = new TradfriGateway("127.0.0.1", "key", 1000, NetworkConfig.createStandardWithoutFile());
+		final TradfriEventDispatcher own = gateway.getDispatcher();
+		final CountDownLatch initializing = new CountDownLatch(1);
+		gateway.addListener((TradfriGatewayListener) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { TradfriGatewayListener.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				if (method.getName().equals("gatewayInitializing"))
+					initializing.countDown();
+				return null;
+			}
+		}));
+		// Nothing answers on the loopback interface: the gateway stays in its discovery
+		final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		gateway.start(executor);
+		assertTrue(initializing.await(5, TimeUnit.SECONDS));
+		assertSame(own, gateway.getDispatcher());
+		gateway.stop();
+		executor.shutdownNow();
+	}
+
+	private static int eventThreads() {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("tradfri-events-") && thread.isAlive())
+				count++;
+		}
+		return count;
+	}
+
+	private static void awaitEventThreads(final int expected) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (eventThreads() != expected && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		assertEquals(expected, eventThreads());
+	}
+
+}
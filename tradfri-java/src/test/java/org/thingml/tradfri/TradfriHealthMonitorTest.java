@@ -0,0 +1,107 @@
+package org.thingml.tradfri;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.junit.Before;
+import org.junit.Test;
+import org.thingml.tradfri.TradfriHealthMonitor.State;
+
+public class TradfriHealthMonitorTest {
+
+	private final List<State> transitions = new ArrayList<State>();
+
+	private TradfriHealthMonitor health;
+
+	@Before
+	public void setUp() {
+		// Transitions are recorded as the gateway is told about them
+		final TradfriGateway gateway = new TradfriGateway(NetworkConfig.createStandardWithoutFile()) {
+			@Override
+			void healthChanged(final State previous, final State state) {
+				transitions.add(state);
+			}
+		};
+		health = new TradfriHealthMonitor(gateway);
+		health.setFailureThreshold(3);
+		health.setBackoff(100, 400);
+	}
+
+	@Test
+	public void opensAfterConsecutiveFailures() {
+		health.failure();
+		health.failure();
+		assertEquals(State.CLOSED, health.getState());
+		assertTrue(health.allowRequest());
+		health.failure();
+		assertEquals(State.OPEN, health.getState());
+		assertFalse(health.allowRequest());
+		assertEquals(1, health.getRejected());
+		assertEquals(1, health.getOpened());
+	}
+
+	@Test
+	public void successResetsTheFailureCount() {
+		health.failure();
+		health.failure();
+		health.success();
+		health.failure();
+		health.failure();
+		assertEquals(State.CLOSED, health.getState());
+	}
+
+	@Test
+	public void probeClosesTheCircuit() {
+		open();
+		final long now = System.currentTimeMillis();
+		assertFalse(health.isProbeDue(now));
+		assertTrue(health.isProbeDue(now + 100));
+		health.probing();
+		assertEquals(State.HALF_OPEN, health.getState());
+		assertFalse(health.allowRequest());
+		health.probeSucceeded();
+		assertEquals(State.CLOSED, health.getState());
+		assertEquals(0, health.getConsecutiveFailures());
+		assertEquals(0, health.getProbeDelay(now));
+	}
+
+	@Test
+	public void failedProbesBackOffUpToTheMaximum() {
+		open();
+		long previous = 100;
+		for (int i = 0; i < 4; i++) {
+			health.probing();
+			health.probeFailed();
+			assertEquals(State.OPEN, health.getState());
+			final long delay = health.getProbeDelay(System.currentTimeMillis());
+			assertTrue("backoff " + delay + " after " + previous, delay > previous / 2 && delay <= 400);
+			previous = delay;
+		}
+		assertTrue(health.getProbeDelay(System.currentTimeMillis()) > 300);
+	}
+
+	@Test
+	public void listenersSeeEachTransitionOnce() {
+		open();
+		// Late failures of requests sent before the circuit opened do not open it again
+		health.failure();
+		health.probing();
+		health.probeSucceeded();
+		assertEquals(3, transitions.size());
+		assertEquals(State.OPEN, transitions.get(0));
+		assertEquals(State.HALF_OPEN, transitions.get(1));
+		assertEquals(State.CLOSED, transitions.get(2));
+	}
+
+	private void open() {
+		for (int i = 0; i < health.getFailureThreshold(); i++)
+			health.failure();
+		assertEquals(State.OPEN, health.getState());
+	}
+
+}
@@ -0,0 +1,56 @@
+package org.thingml.tradfri;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TradfriImpairmentTest {
+
+	@Test
+	public void fatesOfADirectionDoNotDependOnTheOtherDirection() {
+		final TradfriImpairment alone = lossy();
+		final List<Long> expected = new ArrayList<Long>();
+		for (int i = 0; i < 100; i++) {
+			expected.add(alone.delay(alone.nextDatagram(false)));
+		}
+
+		// Same seed, with incoming datagrams interleaved by the receiving thread
+		final TradfriImpairment interleaved = lossy();
+		final List<Long> delays = new ArrayList<Long>();
+		for (int i = 0; i < 100; i++) {
+			for (int j = 0; j < i % 3; j++) {
+				interleaved.delay(interleaved.nextDatagram(true));
+			}
+			delays.add(interleaved.delay(interleaved.nextDatagram(false)));
+		}
+		assertEquals(expected, delays);
+	}
+
+	@Test
+	public void lossFollowsTheProbability() {
+		final TradfriImpairment impairment = new TradfriImpairment().setLoss(0.25);
+		for (int i = 0; i < 10000; i++) {
+			impairment.delay(impairment.nextDatagram(i % 2 == 0));
+		}
+		assertEquals(10000, impairment.getDatagrams());
+		assertTrue(impairment.getLost() > 2200 && impairment.getLost() < 2800);
+	}
+
+	@Test
+	public void delayStaysWithinTheJitter() {
+		final TradfriImpairment impairment = new TradfriImpairment().setDelay(50).setJitter(10);
+		for (int i = 0; i < 1000; i++) {
+			final long delay = impairment.delay(impairment.nextDatagram(false));
+			assertTrue(delay >= 40 && delay <= 60);
+		}
+	}
+
+	private static TradfriImpairment lossy() {
+		return new TradfriImpairment(42).setLoss(0.2).setDelay(20).setJitter(10).setReordering(0.1);
+	}
+
+}
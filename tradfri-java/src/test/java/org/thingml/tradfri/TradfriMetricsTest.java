@@ -0,0 +1,53 @@
+package org.thingml.tradfri;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TradfriMetricsTest {
+
+	@Test
+	public void pollAgesOfGatewaysSharingMetricsAreKeptApart() {
+		final TradfriMetrics metrics = new TradfriMetrics();
+		metrics.deviceUpdated("10.0.0.1", 65537);
+		metrics.deviceUpdated("10.0.0.2", 65537);
+		metrics.deviceForgotten("10.0.0.1", 65537);
+
+		final Map<String, Map<Integer, Long>> ages = metrics.getPollAges();
+		assertFalse(ages.containsKey("10.0.0.1"));
+		assertEquals(1, ages.get("10.0.0.2").size());
+		assertTrue(ages.get("10.0.0.2").containsKey(65537));
+	}
+
+	@Test
+	public void forgottenGatewayLeavesTheOthers() {
+		final TradfriMetrics metrics = new TradfriMetrics();
+		metrics.deviceUpdated("10.0.0.1", 65537);
+		metrics.deviceUpdated("10.0.0.2", 65538);
+		metrics.gatewayForgotten("10.0.0.1");
+
+		assertEquals(1, metrics.getPollAges().size());
+		assertTrue(metrics.getPollAges().get("10.0.0.2").containsKey(65538));
+	}
+
+	@Test
+	public void exportLabelsPollAgesWithTheGatewayAddress() {
+		final TradfriMetrics metrics = new TradfriMetrics();
+		metrics.deviceUpdated("10.0.0.1", 65537);
+		metrics.deviceUpdated("10.0.0.2", 65537);
+		final TradfriGateway gateway = new TradfriGateway("10.0.0.1", "key");
+		gateway.setMetrics(metrics);
+		final TradfriPrometheusExporter exporter = new TradfriPrometheusExporter();
+		exporter.register("home", gateway);
+
+		final String text = exporter.scrape();
+		assertTrue(text.contains("tradfri_device_poll_age_seconds{gateway=\"home\",address=\"10.0.0.1\",device=\"65537\"}"));
+		assertTrue(text.contains("tradfri_device_poll_age_seconds{gateway=\"home\",address=\"10.0.0.2\",device=\"65537\"}"));
+		gateway.destroy();
+	}
+
+}
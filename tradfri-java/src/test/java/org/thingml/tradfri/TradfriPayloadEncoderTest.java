@@ -0,0 +1,68 @@
+package org.thingml.tradfri;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.Charset;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class TradfriPayloadEncoderTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Test
+	public void encodesDeviceCommands() {
+		final TradfriCommand command = new TradfriCommand(TradfriConstants.LIGHT)
+				.set(TradfriConstants.ONOFF, 1)
+				.set(TradfriConstants.DIMMER, 254);
+		assertEquals("{\"3311\":[{\"5850\":1,\"5851\":254}]}", encode(command));
+	}
+
+	@Test
+	public void encodesGroupCommandsUnwrapped() {
+		final TradfriCommand command = new TradfriCommand()
+				.set(TradfriConstants.ONOFF, 0)
+				.set(TradfriConstants.TRANSITION_TIME, 5);
+		assertEquals("{\"5850\":0,\"5712\":5}", encode(command));
+	}
+
+	@Test
+	public void encodesIntegerBounds() {
+		final TradfriCommand command = new TradfriCommand(TradfriConstants.LIGHT)
+				.set("a", 0)
+				.set("b", -42)
+				.set("c", Integer.MAX_VALUE)
+				.set("d", Integer.MIN_VALUE);
+		assertSameAsJson(command);
+	}
+
+	@Test
+	public void escapesStrings() {
+		final TradfriCommand command = new TradfriCommand(TradfriConstants.LIGHT)
+				.set(TradfriConstants.COLOR, "quote\" backslash\\ tab\t")
+				.set(TradfriConstants.NAME, "Küche ☀ 💡");
+		assertSameAsJson(command);
+	}
+
+	@Test
+	public void growsTheBuffer() {
+		final StringBuilder name = new StringBuilder();
+		for (int i = 0; i < 100; i++)
+			name.append("long name ");
+		final TradfriCommand command = new TradfriCommand(TradfriConstants.LIGHT).set(TradfriConstants.NAME, name.toString());
+		assertSameAsJson(command);
+	}
+
+	private static String encode(final TradfriCommand command) {
+		return new String(command.encode(), UTF_8);
+	}
+
+	/**
+	 * The encoder writes what the JSON library would, up to the order of the attributes
+	 */
+	private static void assertSameAsJson(final TradfriCommand command) {
+		assertEquals(new JSONObject(command.toPayload()).toString(), new JSONObject(encode(command)).toString());
+	}
+
+}
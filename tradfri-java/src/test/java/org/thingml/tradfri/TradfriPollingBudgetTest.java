@@ -0,0 +1,33 @@
+package org.thingml.tradfri;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.junit.Test;
+import org.thingml.tradfri.packet.TradfriLightBulbPacket;
+
+public class TradfriPollingBudgetTest {
+
+	@Test(timeout = 5000)
+	public void pollsCanceledAtTheDeadlineCountAsSkipped() throws Exception {
+		// The gateway never answers: the requests in flight are canceled at their deadline
+		final TradfriGateway gateway = new TradfriGateway(NetworkConfig.createStandardWithoutFile()) {
+			@Override
+			public TradfriFuture<CoapResponse> getAsync(final String path, final long timeout, final TimeUnit unit) {
+				return TradfriDeadlines.expire(new TradfriFuture<CoapResponse>(), timeout, unit, null);
+			}
+		};
+		gateway.setPollingConcurrency(2);
+		final List<TradfriLightBulbPacket> bulbs = Arrays.asList(TradfriTestDevices.bulb(65537), TradfriTestDevices.bulb(65538), TradfriTestDevices.bulb(65539));
+
+		// Two in flight until the deadline, the third never sent
+		assertEquals(3, gateway.pollDevices(bulbs, System.currentTimeMillis() + 100));
+		gateway.destroy();
+	}
+
+}
@@ -0,0 +1,120 @@
+package org.thingml.tradfri;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.thingml.tradfri.packet.TradfriGroupPacket;
+import org.thingml.tradfri.packet.TradfriLightBulbPacket;
+
+public class TradfriPollingSchedulerTest {
+
+	private static final long T0 = 1000000L;
+
+	private TradfriPollingScheduler scheduler;
+
+	private TradfriLightBulbPacket bulb;
+
+	@Before
+	public void setUp() {
+		scheduler = new TradfriPollingScheduler();
+		scheduler.setIntervals(5000, 1000, 60000, 300000);
+		scheduler.setGroupInterval(10000);
+		bulb = TradfriTestDevices.bulb(65537);
+	}
+
+	@Test
+	public void newDeviceIsDueAfterTheInitialInterval() {
+		assertFalse(scheduler.isDue(bulb, T0));
+		assertFalse(scheduler.isDue(bulb, T0 + 4999));
+		assertTrue(scheduler.isDue(bulb, T0 + 5000));
+	}
+
+	@Test
+	public void changedDeviceIsPolledAtTheMinimumInterval() {
+		scheduler.polled(bulb, true, T0);
+		assertEquals(1000, scheduler.getInterval(bulb.getPath()));
+		assertTrue(scheduler.isDue(bulb, T0 + 1000));
+	}
+
+	@Test
+	public void stableDeviceBacksOffUpToTheMaximum() {
+		scheduler.polled(bulb, true, T0);
+		long expected = 1000;
+		for (int i = 0; i < 10; i++) {
+			scheduler.polled(bulb, false, T0);
+			expected = Math.min(expected * 2, 60000);
+			assertEquals(expected, scheduler.getInterval(bulb.getPath()));
+		}
+		assertEquals(60000, scheduler.getInterval(bulb.getPath()));
+	}
+
+	@Test
+	public void unreachableDeviceBacksOffUpToTheOfflineInterval() {
+		bulb.update(TradfriTestDevices.bulbJson(bulb.getId(), false, false, 0));
+		scheduler.polled(bulb, true, T0);
+		// Doubled from the initial interval
+		assertEquals(10000, scheduler.getInterval(bulb.getPath()));
+		for (int i = 0; i < 10; i++)
+			scheduler.polled(bulb, false, T0);
+		assertEquals(300000, scheduler.getInterval(bulb.getPath()));
+	}
+
+	@Test
+	public void failedPollBacksOff() {
+		scheduler.polled(bulb, true, T0);
+		scheduler.failed(bulb, T0);
+		assertEquals(5000, scheduler.getInterval(bulb.getPath()));
+		assertFalse(scheduler.isDue(bulb, T0 + 4999));
+	}
+
+	@Test
+	public void commandBringsTheDeviceBackToTheMinimumInterval() {
+		scheduler.polled(bulb, true, T0);
+		for (int i = 0; i < 6; i++)
+			scheduler.polled(bulb, false, T0);
+		scheduler.touched(bulb.getPath(), T0 + 10);
+		assertEquals(1000, scheduler.getInterval(bulb.getPath()));
+		assertTrue(scheduler.isDue(bulb, T0 + 1010));
+	}
+
+	@Test
+	public void restoredDeviceIsDueAtOnce() {
+		scheduler.stale(bulb.getPath());
+		assertTrue(scheduler.isDue(bulb, T0));
+	}
+
+	@Test
+	public void delayIsBoundedByTheMinimumInterval() {
+		final TradfriLightBulbPacket other = TradfriTestDevices.bulb(65538);
+		scheduler.polled(bulb, false, T0);
+		assertEquals(1000, scheduler.delay(Arrays.asList(bulb), T0));
+		// Unknown devices are due now
+		assertEquals(0, scheduler.delay(Arrays.asList(bulb, other), T0));
+		scheduler.polled(other, true, T0);
+		assertEquals(500, scheduler.delay(Arrays.asList(bulb, other), T0 + 500));
+	}
+
+	@Test
+	public void groupsFollowTheirOwnInterval() {
+		final TradfriGroupPacket group = new TradfriGroupPacket(131073, null);
+		assertFalse(scheduler.isDue(group, T0));
+		assertTrue(scheduler.isDue(group, T0 + 10000));
+		scheduler.polled(group, T0 + 10000);
+		assertFalse(scheduler.isDue(group, T0 + 19999));
+		assertTrue(scheduler.isDue(group, T0 + 20000));
+		assertEquals(10000, scheduler.getInterval(group.getPath()));
+	}
+
+	@Test
+	public void forgottenDeviceStartsOver() {
+		scheduler.polled(bulb, true, T0);
+		scheduler.forget(bulb.getPath());
+		assertFalse(scheduler.isDue(bulb, T0 + 1000));
+	}
+
+}
@@ -0,0 +1,62 @@
+package org.thingml.tradfri;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TradfriRequestWindowTest {
+
+	@Test
+	public void limitsTheRequestsInFlight() throws Exception {
+		final TradfriRequestWindow window = new TradfriRequestWindow(2);
+		window.acquire();
+		final TradfriFuture<String> first = window.track(new TradfriFuture<String>());
+		window.acquire();
+		window.track(new TradfriFuture<String>());
+		assertFalse(window.acquire(20));
+		first.complete("done");
+		assertTrue(window.acquire(20));
+	}
+
+	@Test
+	public void failedRequestsReleaseTheirSlot() throws Exception {
+		final TradfriRequestWindow window = new TradfriRequestWindow(1);
+		window.acquire();
+		window.track(new TradfriFuture<String>()).fail(new IllegalStateException());
+		assertTrue(window.acquire(20));
+	}
+
+	@Test
+	public void awaitReturnsOnceAllTrackedRequestsAreDone() throws Exception {
+		final TradfriRequestWindow window = new TradfriRequestWindow(4);
+		window.acquire();
+		final TradfriFuture<String> first = window.track(new TradfriFuture<String>());
+		window.acquire();
+		final TradfriFuture<String> second = window.track(new TradfriFuture<String>());
+
+		final CountDownLatch awaited = new CountDownLatch(1);
+		final Thread waiter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					window.await();
+					awaited.countDown();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		waiter.start();
+		first.complete("a");
+		assertFalse(awaited.await(50, TimeUnit.MILLISECONDS));
+		second.complete("b");
+		assertTrue(awaited.await(5, TimeUnit.SECONDS));
+		// The window is reusable afterwards
+		assertTrue(window.acquire(20));
+	}
+
+}
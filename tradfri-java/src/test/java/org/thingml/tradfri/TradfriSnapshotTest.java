@@ -0,0 +1,54 @@
+package org.thingml.tradfri;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.thingml.tradfri.packet.TradfriLightBulbPacket;
+
+public class TradfriSnapshotTest {
+
+	@Test
+	public void restoredBulbHasItsLastKnownStateBeforeDiscovery() throws Exception {
+		final File file = File.createTempFile("tradfri", ".snapshot");
+		file.deleteOnExit();
+		new TradfriSnapshot("127.0.0.1", System.currentTimeMillis(), Arrays.asList(TradfriTestDevices.bulbJson(65537, true, true, 128)),
+				Collections.<JSONObject>emptyList(), Collections.<Integer>emptyList()).write(file);
+
+		final TradfriGateway gateway = new TradfriGateway("127.0.0.1", "key", 1000, NetworkConfig.createStandardWithoutFile());
+		gateway.setSnapshotFile(file);
+		// Nothing answers on the loopback interface: the gateway stays in its discovery
+		final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		gateway.start(executor);
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (gateway.getLightBulb(65537) == null && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+
+		final TradfriLightBulbPacket bulb = gateway.getLightBulb(65537);
+		assertNotNull(bulb);
+		assertTrue(bulb.isOnline());
+		assertTrue(bulb.isOn());
+		assertEquals(128, bulb.getIntensity());
+		assertEquals("f1e0b5", bulb.getColor());
+		gateway.stop();
+		executor.shutdownNow();
+	}
+
+}
@@ -0,0 +1,78 @@
+package org.thingml.tradfri;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+import org.thingml.tradfri.listener.TradfriLightBulbListener;
+import org.thingml.tradfri.packet.TradfriLightBulbPacket;
+import org.thingml.tradfri.packet.TradfriPacket;
+
+public class TradfriStateSubscriptionTest {
+
+	@Test
+	public void changesAreConflatedUntilDrained() {
+		final TradfriLightBulbPacket bulb = TradfriTestDevices.bulb(65537);
+		final TradfriLightBulbPacket other = TradfriTestDevices.bulb(65538);
+		final TradfriStateSubscription subscription = new TradfriStateSubscription();
+		subscription.subscribe(bulb);
+		subscription.subscribe(other);
+
+		for (int i = 1; i <= 10; i++)
+			bulb.update(TradfriTestDevices.bulbJson(bulb.getId(), true, true, i));
+		assertEquals(Arrays.<TradfriPacket>asList(bulb), subscription.drain());
+		assertEquals(9, subscription.getConflated());
+		assertEquals(10, bulb.getIntensity());
+		assertTrue(subscription.drain().isEmpty());
+	}
+
+	@Test
+	public void unsubscribedPacketsAreNotReported() {
+		final TradfriLightBulbPacket bulb = TradfriTestDevices.bulb(65537);
+		final TradfriStateSubscription subscription = new TradfriStateSubscription();
+		subscription.subscribe(bulb);
+		bulb.update(TradfriTestDevices.bulbJson(bulb.getId(), true, true, 1));
+		subscription.unsubscribe(bulb);
+		assertTrue(subscription.drain().isEmpty());
+		bulb.update(TradfriTestDevices.bulbJson(bulb.getId(), true, true, 2));
+		assertTrue(subscription.drain().isEmpty());
+	}
+
+	@Test
+	public void pushSubscriptionDeliversTheNewestStateOnce() {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		final Executor executor = new Executor() {
+			@Override
+			public void execute(final Runnable task) {
+				tasks.add(task);
+			}
+		};
+		final List<Integer> delivered = new ArrayList<Integer>();
+		final TradfriLightBulbPacket bulb = TradfriTestDevices.bulb(65537);
+		final TradfriStateSubscription subscription = new TradfriStateSubscription(executor);
+		subscription.subscribe(bulb, new TradfriLightBulbListener() {
+			@Override
+			public void bulbStateChanged(final TradfriLightBulbPacket bulb) {
+				delivered.add(bulb.getIntensity());
+			}
+		});
+
+		for (int i = 1; i <= 5; i++)
+			bulb.update(TradfriTestDevices.bulbJson(bulb.getId(), true, true, i));
+		// A single drain is scheduled for the burst
+		assertEquals(1, tasks.size());
+		tasks.get(0).run();
+		assertEquals(Arrays.asList(5), delivered);
+
+		bulb.update(TradfriTestDevices.bulbJson(bulb.getId(), true, true, 6));
+		assertEquals(2, tasks.size());
+		tasks.get(1).run();
+		assertEquals(Arrays.asList(5, 6), delivered);
+	}
+
+}
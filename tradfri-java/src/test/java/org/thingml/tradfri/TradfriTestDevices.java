@@ -0,0 +1,40 @@
+package org.thingml.tradfri;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.thingml.tradfri.packet.TradfriLightBulbPacket;
+
+/**
+ * Device descriptors shaped like the responses of the gateway, for the tests
+ */
+final class TradfriTestDevices {
+
+	private TradfriTestDevices() {
+	}
+
+	static JSONObject bulbJson(final int id, final boolean reachable, final boolean on, final int intensity) {
+		final JSONObject light = new JSONObject()
+				.put(TradfriConstants.ONOFF, on ? 1 : 0)
+				.put(TradfriConstants.DIMMER, intensity)
+				.put(TradfriConstants.COLOR, "f1e0b5");
+		return new JSONObject()
+				.put(TradfriConstants.INSTANCE_ID, id)
+				.put(TradfriConstants.TYPE, TradfriConstants.TYPE_BULB)
+				.put(TradfriConstants.NAME, "Bulb " + id)
+				.put(TradfriConstants.DATE_INSTALLED, 1500000000L)
+				.put(TradfriConstants.DATE_LAST_SEEN, 1500000000L)
+				.put(TradfriConstants.DEVICE_REACHABLE, reachable ? 1 : 0)
+				.put("3", new JSONObject().put("0", "IKEA of Sweden").put("1", "TRADFRI bulb E27 CWS opal 600lm").put("3", "1.3.002"))
+				.put(TradfriConstants.LIGHT, new JSONArray().put(light));
+	}
+
+	/**
+	 * Reachable bulb without gateway, whose events are delivered on the calling thread
+	 */
+	static TradfriLightBulbPacket bulb(final int id) {
+		final TradfriLightBulbPacket bulb = new TradfriLightBulbPacket(id, null);
+		bulb.update(bulbJson(id, true, false, 0));
+		return bulb;
+	}
+
+}
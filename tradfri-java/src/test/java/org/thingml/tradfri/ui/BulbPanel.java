@@ -19,6 +19,7 @@ import org.json.JSONException;
 import org.thingml.tradfri.packet.TradfriLightBulbPacket;
 import org.thingml.tradfri.listener.TradfriLightBulbListener;
 import org.thingml.tradfri.TradfriConstants;
+import org.thingml.tradfri.TradfriStateSubscription;
 
 /**
  *
@@ -31,13 +32,13 @@ public class BulbPanel extends javax.swing.JPanel implements TradfriLightBulbLis
 	protected TradfriLightBulbPacket bulb;
     protected boolean updating = true;
     /**
-     * Creates new form BulbPanel
+     * Creates new form BulbPanel, refreshed with the latest state of the bulb on the event queue
      */
-    public BulbPanel(final TradfriLightBulbPacket bulb) {
+    public BulbPanel(final TradfriLightBulbPacket bulb, final TradfriStateSubscription subscription) {
         this.bulb = bulb;
-        bulb.addListener(this);
         initComponents();
         updatePanelContent();
+        subscription.subscribe(bulb, this);
     }
 
     /**
@@ -211,8 +212,8 @@ public class BulbPanel extends javax.swing.JPanel implements TradfriLightBulbLis
 
     private void jSlider1StateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_jSlider1StateChanged
         if (updating) return;
-        if (jSlider1.getValueIsAdjusting()) return;
-        bulb.setIntensity(jSlider1.getValue());
+        // Sent while dragging: values arriving while a PUT is in flight are coalesced by the gateway
+        bulb.setIntensityAsync(jSlider1.getValue());
     }//GEN-LAST:event_jSlider1StateChanged
 
     private void jRadioWarmActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jRadioWarmActionPerformed
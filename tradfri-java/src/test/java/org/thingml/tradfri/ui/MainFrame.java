@@ -1,12 +1,15 @@
 package org.thingml.tradfri.ui;
 
+import java.util.concurrent.Executor;
 import java.util.prefs.Preferences;
 
 import org.thingml.tradfri.packet.TradfriControlOutletPacket;
+import org.thingml.tradfri.packet.TradfriGroupPacket;
 import org.thingml.tradfri.packet.TradfriLightBulbPacket;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.thingml.tradfri.TradfriGateway;
+import org.thingml.tradfri.TradfriStateSubscription;
 import org.thingml.tradfri.listener.TradfriGatewayListener;
 
 /**
@@ -22,6 +25,16 @@ public class MainFrame extends javax.swing.JFrame implements TradfriGatewayListe
 	private static MainFrame instance = null;
 	
 	private TradfriGateway gateway = new TradfriGateway();
+
+	/**
+	 * Bulb panels only repaint the latest state of their bulb, on the event queue
+	 */
+	private final TradfriStateSubscription stateSubscription = new TradfriStateSubscription(new Executor() {
+		@Override
+		public void execute(final Runnable command) {
+			java.awt.EventQueue.invokeLater(command);
+		}
+	});
 	
 	final Preferences prefs = Preferences.userRoot().node(this.getClass().getName());
     
@@ -260,7 +273,7 @@ public class MainFrame extends javax.swing.JFrame implements TradfriGatewayListe
     }
 
     @Override
-    public void pollingCompleted(final TradfriGateway gateway, final int bulbCount, final int totalTime) {
+    public void pollingCompleted(final TradfriGateway gateway, final int bulbCount, final int skippedCount, final int totalTime) {
         //
     }
 
@@ -274,7 +287,7 @@ public class MainFrame extends javax.swing.JFrame implements TradfriGatewayListe
     public void lightBulbDiscovered(final TradfriGateway gateway, final TradfriLightBulbPacket lightBulb) {
 		jProgressBarDiscover.setValue(jProgressBarDiscover.getValue() + 1);
 		if (lightBulb.isOnline() || !jCheckBoxShowOnlyOnline.isSelected()) {
-			final BulbPanel p = new BulbPanel(lightBulb);
+			final BulbPanel p = new BulbPanel(lightBulb, stateSubscription);
 			jPanelBulbs.add(p);
 			jPanelBulbs.revalidate();
 			jPanelBulbs.repaint();
@@ -286,6 +299,18 @@ public class MainFrame extends javax.swing.JFrame implements TradfriGatewayListe
         //
     }
 
+    @Override
+    public void lightBulbRemoved(final TradfriGateway gateway, final TradfriLightBulbPacket lightBulb) {
+        for (java.awt.Component c : jPanelBulbs.getComponents()) {
+            if (c instanceof BulbPanel && ((BulbPanel) c).bulb == lightBulb) {
+                stateSubscription.unsubscribe(lightBulb);
+                jPanelBulbs.remove(c);
+            }
+        }
+        jPanelBulbs.revalidate();
+        jPanelBulbs.repaint();
+    }
+
 	@Override
 	public void controlOutletDiscoveryStarted(final TradfriGateway gateway, final int totalDevices) {
 		//
@@ -301,6 +326,31 @@ public class MainFrame extends javax.swing.JFrame implements TradfriGatewayListe
 		//
 	}
 
+	@Override
+	public void controlOutletRemoved(final TradfriGateway gateway, final TradfriControlOutletPacket controlOutlet) {
+		//
+	}
+
+	@Override
+	public void groupDiscoveryStarted(final TradfriGateway gateway, final int totalGroups) {
+		//
+	}
+
+	@Override
+	public void groupDiscovered(final TradfriGateway gateway, final TradfriGroupPacket group) {
+		//
+	}
+
+	@Override
+	public void groupDiscoveryCompleted(final TradfriGateway gateway) {
+		//
+	}
+
+	@Override
+	public void groupRemoved(final TradfriGateway gateway, final TradfriGroupPacket group) {
+		//
+	}
+
     @Override
     public void gatewayStarted(final TradfriGateway gateway) {
         jButtonStop.setEnabled(true);
@@ -313,9 +363,7 @@ public class MainFrame extends javax.swing.JFrame implements TradfriGatewayListe
         jTextFieldIP.setEditable(true);
         jTextFieldKey.setEditable(true);
         jCheckBoxShowOnlyOnline.setEnabled(true);
-        jPanelBulbs.removeAll();
-        jPanelBulbs.revalidate();
-        jPanelBulbs.repaint();
+        // Bulb panels are kept: the next discovery only reports added and removed bulbs
     }
 
 }